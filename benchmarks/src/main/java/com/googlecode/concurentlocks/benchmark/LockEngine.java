@@ -0,0 +1,279 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.benchmark;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A value guarded by one of the locks being compared, with read, update and write operations implemented in the way
+ * which is idiomatic for that lock. Critical sections consume a configurable number of JMH CPU tokens.
+ * <p/>
+ * An update reads the value and, if it decides to, writes it. Locks which cannot upgrade a read lock to a write lock
+ * without risking deadlock must perform the whole update under the write lock, which is the case the update lock
+ * was designed for.
+ *
+ * @author Niall Gallagher
+ */
+public abstract class LockEngine {
+
+    /**
+     * The names of the engines, for use as a JMH parameter.
+     */
+    public static final String
+            RRWUL = "RRWUL",
+            RRWUL_SCALABLE_READS = "RRWUL-scalableReads",
+            RRWUL_UNCHECKED = "RRWUL-unchecked",
+            RRWL = "RRWL",
+            STAMPED_LOCK = "StampedLock",
+            SYNCHRONIZED = "synchronized";
+
+    long value;
+
+    /**
+     * Reads the value.
+     */
+    public abstract long read(int work);
+
+    /**
+     * Reads the value, and if the given flag is true, increments it.
+     */
+    public abstract long update(int work, boolean write);
+
+    /**
+     * Increments the value.
+     */
+    public abstract void write(int work);
+
+    long readValue(int work) {
+        Blackhole.consumeCPU(work);
+        return value;
+    }
+
+    void writeValue(int work) {
+        Blackhole.consumeCPU(work);
+        value++;
+    }
+
+    public static LockEngine create(String name) {
+        if (RRWUL.equals(name)) {
+            return new ReadWriteUpdateLockEngine(new ReentrantReadWriteUpdateLock(false));
+        }
+        else if (RRWUL_SCALABLE_READS.equals(name)) {
+            return new ReadWriteUpdateLockEngine(new ReentrantReadWriteUpdateLock(true));
+        }
+        else if (RRWUL_UNCHECKED.equals(name)) {
+            return new ReadWriteUpdateLockEngine(ReentrantReadWriteUpdateLock.builder().checked(false).build());
+        }
+        else if (RRWL.equals(name)) {
+            return new ReadWriteLockEngine(new ReentrantReadWriteLock());
+        }
+        else if (STAMPED_LOCK.equals(name)) {
+            return new StampedLockEngine(new StampedLock());
+        }
+        else if (SYNCHRONIZED.equals(name)) {
+            return new SynchronizedEngine();
+        }
+        throw new IllegalArgumentException("Unknown lock engine: " + name);
+    }
+
+    static class ReadWriteUpdateLockEngine extends LockEngine {
+
+        final Lock readLock, updateLock, writeLock;
+
+        ReadWriteUpdateLockEngine(ReentrantReadWriteUpdateLock lock) {
+            this.readLock = lock.readLock();
+            this.updateLock = lock.updateLock();
+            this.writeLock = lock.writeLock();
+        }
+
+        @Override
+        public long read(int work) {
+            readLock.lock();
+            try {
+                return readValue(work);
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public long update(int work, boolean write) {
+            updateLock.lock();
+            try {
+                long result = readValue(work);
+                if (write) {
+                    writeLock.lock();
+                    try {
+                        writeValue(work);
+                    }
+                    finally {
+                        writeLock.unlock();
+                    }
+                }
+                return result;
+            }
+            finally {
+                updateLock.unlock();
+            }
+        }
+
+        @Override
+        public void write(int work) {
+            writeLock.lock();
+            try {
+                writeValue(work);
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    static class ReadWriteLockEngine extends LockEngine {
+
+        final Lock readLock, writeLock;
+
+        ReadWriteLockEngine(ReentrantReadWriteLock lock) {
+            this.readLock = lock.readLock();
+            this.writeLock = lock.writeLock();
+        }
+
+        @Override
+        public long read(int work) {
+            readLock.lock();
+            try {
+                return readValue(work);
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public long update(int work, boolean write) {
+            // Read locks cannot be upgraded, so updates must be performed entirely under the write lock...
+            writeLock.lock();
+            try {
+                long result = readValue(work);
+                if (write) {
+                    writeValue(work);
+                }
+                return result;
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void write(int work) {
+            writeLock.lock();
+            try {
+                writeValue(work);
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    static class StampedLockEngine extends LockEngine {
+
+        final StampedLock lock;
+
+        StampedLockEngine(StampedLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public long read(int work) {
+            long stamp = lock.tryOptimisticRead();
+            long result = readValue(work);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+            stamp = lock.readLock();
+            try {
+                return readValue(work);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public long update(int work, boolean write) {
+            long stamp = lock.readLock();
+            try {
+                long result = readValue(work);
+                if (write) {
+                    // Conversion fails if other readers hold the lock, in which case the value must be re-read...
+                    long writeStamp = lock.tryConvertToWriteLock(stamp);
+                    if (writeStamp == 0L) {
+                        lock.unlockRead(stamp);
+                        writeStamp = lock.writeLock();
+                        result = readValue(work);
+                    }
+                    stamp = writeStamp;
+                    writeValue(work);
+                }
+                return result;
+            }
+            finally {
+                lock.unlock(stamp);
+            }
+        }
+
+        @Override
+        public void write(int work) {
+            long stamp = lock.writeLock();
+            try {
+                writeValue(work);
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    static class SynchronizedEngine extends LockEngine {
+
+        @Override
+        public synchronized long read(int work) {
+            return readValue(work);
+        }
+
+        @Override
+        public synchronized long update(int work, boolean write) {
+            long result = readValue(work);
+            if (write) {
+                writeValue(work);
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized void write(int work) {
+            writeValue(work);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a mix of read, update and write operations on a value guarded by each of the locks
+ * compared by {@link LockEngine}, for a range of operation mixes, critical section lengths and thread counts.
+ * <p/>
+ * Each benchmark method runs the same workload with a different number of threads. Parameters:
+ * <ul>
+ *     <li>{@code engine} - the lock</li>
+ *     <li>{@code mix} - the percentages of read/update/write operations</li>
+ *     <li>{@code work} - the length of critical sections, in JMH CPU tokens</li>
+ *     <li>{@code writingUpdates} - the percentage of update operations which go on to write</li>
+ * </ul>
+ * The full matrix takes a while to run; select a subset with JMH's {@code -p} option, for example
+ * {@code -p engine=RRWUL,RRWL -p mix=90/9/1}.
+ *
+ * @author Niall Gallagher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockMixBenchmark {
+
+    @Param({LockEngine.RRWUL, LockEngine.RRWUL_SCALABLE_READS, LockEngine.RRWUL_UNCHECKED,
+            LockEngine.RRWL, LockEngine.STAMPED_LOCK, LockEngine.SYNCHRONIZED})
+    public String engine;
+
+    @Param({"100/0/0", "90/9/1", "70/20/10", "0/100/0", "0/0/100"})
+    public String mix;
+
+    @Param({"0", "100"})
+    public int work;
+
+    @Param({"10"})
+    public int writingUpdates;
+
+    LockEngine lock;
+    int readBound, updateBound;
+
+    @Setup
+    public void setUp() {
+        lock = LockEngine.create(engine);
+        String[] percentages = mix.split("/");
+        if (percentages.length != 3) {
+            throw new IllegalArgumentException("Expected read/update/write percentages: " + mix);
+        }
+        readBound = Integer.parseInt(percentages[0]);
+        updateBound = readBound + Integer.parseInt(percentages[1]);
+        if (updateBound + Integer.parseInt(percentages[2]) != 100) {
+            throw new IllegalArgumentException("Percentages must add up to 100: " + mix);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads1() {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads4() {
+        return operation();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long threads16() {
+        return operation();
+    }
+
+    long operation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int operation = random.nextInt(100);
+        if (operation < readBound) {
+            return lock.read(work);
+        }
+        else if (operation < updateBound) {
+            return lock.update(work, random.nextInt(100) < writingUpdates);
+        }
+        lock.write(work);
+        return 0L;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.benchmark;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures the throughput of read lock acquisition and release, with no writers, as the number of reading threads
+ * increases, for the JDK {@link ReentrantReadWriteLock} and for {@link ReentrantReadWriteUpdateLock} with shared and
+ * with striped ({@code scalableReads}) reader registration.
+ * <p/>
+ * Each benchmark method runs the same workload with a different number of threads. Select engines with JMH's
+ * {@code -p} option, for example {@code -p engine=RRWUL,RRWUL-scalableReads}.
+ *
+ * @author Niall Gallagher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadThroughputBenchmark {
+
+    @Param({LockEngine.RRWL, LockEngine.RRWUL, LockEngine.RRWUL_SCALABLE_READS})
+    public String engine;
+
+    Lock readLock;
+
+    @Setup
+    public void setUp() {
+        if (LockEngine.RRWL.equals(engine)) {
+            readLock = new ReentrantReadWriteLock().readLock();
+        }
+        else if (LockEngine.RRWUL.equals(engine)) {
+            readLock = new ReentrantReadWriteUpdateLock(false).readLock();
+        }
+        else if (LockEngine.RRWUL_SCALABLE_READS.equals(engine)) {
+            readLock = new ReentrantReadWriteUpdateLock(true).readLock();
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported lock engine: " + engine);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() {
+        lockUnlock();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() {
+        lockUnlock();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() {
+        lockUnlock();
+    }
+
+    void lockUnlock() {
+        readLock.lock();
+        readLock.unlock();
+    }
+}
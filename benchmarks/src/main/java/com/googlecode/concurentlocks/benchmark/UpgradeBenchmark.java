@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.benchmark;
+
+import com.googlecode.concurentlocks.LockHandle;
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+import com.googlecode.concurentlocks.Upgrader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * Measures the single-threaded cost of an update which upgrades to the write lock, compared with acquiring only the
+ * update lock, with acquiring the write lock directly, and with the nearest equivalents for the JDK's locks. As there
+ * is no contention, this isolates the overhead of the lock operations themselves.
+ *
+ * @author Niall Gallagher
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpgradeBenchmark {
+
+    final ReentrantReadWriteUpdateLock readWriteUpdateLock = new ReentrantReadWriteUpdateLock();
+    final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    final StampedLock stampedLock = new StampedLock();
+
+    long value;
+
+    final Function<Upgrader, Long> upgradingUpdate = new Function<Upgrader, Long>() {
+        @Override
+        public Long apply(Upgrader upgrader) {
+            LockHandle write = upgrader.acquireWriteLock();
+            try {
+                return ++value;
+            }
+            finally {
+                write.close();
+            }
+        }
+    };
+
+    @Benchmark
+    public long rrwulUpdateOnly() {
+        readWriteUpdateLock.updateLock().lock();
+        try {
+            return value;
+        }
+        finally {
+            readWriteUpdateLock.updateLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public long rrwulUpdateThenWrite() {
+        readWriteUpdateLock.updateLock().lock();
+        try {
+            readWriteUpdateLock.writeLock().lock();
+            try {
+                return ++value;
+            }
+            finally {
+                readWriteUpdateLock.writeLock().unlock();
+            }
+        }
+        finally {
+            readWriteUpdateLock.updateLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public long rrwulWrite() {
+        readWriteUpdateLock.writeLock().lock();
+        try {
+            return ++value;
+        }
+        finally {
+            readWriteUpdateLock.writeLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public long rrwulFunctionalUpdateThenWrite() {
+        return readWriteUpdateLock.update(upgradingUpdate);
+    }
+
+    @Benchmark
+    public long rrwlWrite() {
+        readWriteLock.writeLock().lock();
+        try {
+            return ++value;
+        }
+        finally {
+            readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public long stampedLockReadThenConvert() {
+        long stamp = stampedLock.readLock();
+        long writeStamp = stampedLock.tryConvertToWriteLock(stamp);
+        if (writeStamp == 0L) {
+            stampedLock.unlockRead(stamp);
+            writeStamp = stampedLock.writeLock();
+        }
+        try {
+            return ++value;
+        }
+        finally {
+            stampedLock.unlockWrite(writeStamp);
+        }
+    }
+
+    @Benchmark
+    public long stampedLockWrite() {
+        long stamp = stampedLock.writeLock();
+        try {
+            return ++value;
+        }
+        finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.benchmark;
+
+import com.googlecode.concurentlocks.ReadWriteUpdateLock;
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Runs a large number of short tasks, each acquiring the read, update or write lock of a randomly chosen
+ * {@link ReentrantReadWriteUpdateLock} from a large table of locks, on
+ * {@code Executors.newVirtualThreadPerTaskExecutor()}, and reports throughput. It then parks a large number of virtual
+ * threads, first without and then while holding read locks from the table, and reports the heap used per parked
+ * thread in each case; the difference is the per-thread memory attributable to the locks.
+ * <p/>
+ * This is a standalone program rather than a JMH benchmark, as heap must be sampled while the threads are parked.
+ * The virtual thread executor is looked up reflectively so that this benchmark compiles against the Java version
+ * targeted by the build; on JVMs without virtual threads the benchmark fails rather than measure platform threads.
+ * <p/>
+ * Run with: <code>java -cp target/benchmarks.jar com.googlecode.concurentlocks.benchmark.VirtualThreadBenchmark
+ * [tasks] [locks] [readPercent] [updatePercent] [parkedThreads]</code>
+ *
+ * @author Niall Gallagher
+ */
+public class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int locks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int readPercent = args.length > 2 ? Integer.parseInt(args[2]) : 80;
+        int updatePercent = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+        int parkedThreads = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+        System.out.println("processors=" + Runtime.getRuntime().availableProcessors() + ", read=" + readPercent + "%, update=" + updatePercent
+                + "%, write=" + (100 - readPercent - updatePercent) + "%");
+        ReadWriteUpdateLock[] table = new ReadWriteUpdateLock[locks];
+        for (int i = 0; i < locks; i++) {
+            table[i] = new ReentrantReadWriteUpdateLock();
+        }
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        try {
+            long start = System.nanoTime();
+            run(executor, table, tasks, readPercent, updatePercent);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%12s %8s %16s%n", "tasks", "locks", "throughput");
+            System.out.printf("%12d %8d %12.1f K/s%n", tasks, table.length, tasks * 1000000.0 / elapsed);
+
+            long heapBefore = usedHeap();
+            long heapParked = park(executor, null, parkedThreads);
+            long heapParkedHolding = park(executor, table, parkedThreads);
+            System.out.printf("%12s %22s %22s%n", "parked", "heap/thread (no lock)", "heap/thread (read lock)");
+            System.out.printf("%12d %16.0f bytes %16.0f bytes%n", parkedThreads,
+                    (heapParked - heapBefore) / (double) parkedThreads, (heapParkedHolding - heapBefore) / (double) parkedThreads);
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Starts the given number of tasks, each of which acquires the read lock of a lock from the table if a table is
+     * given, and then parks until all tasks have started; samples the heap while they are parked, and then releases
+     * them.
+     *
+     * @return The heap used while the tasks were parked
+     */
+    static long park(ExecutorService executor, final ReadWriteUpdateLock[] table, int tasks) throws InterruptedException {
+        final CountDownLatch parked = new CountDownLatch(tasks), release = new CountDownLatch(1), finished = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            final int task = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Lock readLock = table == null ? null : table[task % table.length].readLock();
+                    if (readLock != null) {
+                        readLock.lock();
+                    }
+                    try {
+                        parked.countDown();
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        if (readLock != null) {
+                            readLock.unlock();
+                        }
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        parked.await();
+        long heapParked = usedHeap();
+        release.countDown();
+        finished.await();
+        return heapParked;
+    }
+
+    static void run(ExecutorService executor, final ReadWriteUpdateLock[] table, int tasks, final int readPercent, final int updatePercent) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    ReadWriteUpdateLock readWriteUpdateLock = table[random.nextInt(table.length)];
+                    int mix = random.nextInt(100);
+                    if (mix < readPercent) {
+                        lockUnlock(readWriteUpdateLock.readLock());
+                    }
+                    else if (mix < readPercent + updatePercent) {
+                        Lock updateLock = readWriteUpdateLock.updateLock();
+                        updateLock.lock();
+                        try {
+                            lockUnlock(readWriteUpdateLock.writeLock());
+                        }
+                        finally {
+                            updateLock.unlock();
+                        }
+                    }
+                    else {
+                        lockUnlock(readWriteUpdateLock.writeLock());
+                    }
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+    }
+
+    static void lockUnlock(Lock lock) {
+        lock.lock();
+        try {
+            Thread.yield();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e) {
+            // Results measured on platform threads would be misleading, so refuse to run rather than fall back...
+            throw new IllegalStateException("Virtual threads are not available on this JVM (" + System.getProperty("java.version") + "), run this benchmark on Java 21 or later", e);
+        }
+    }
+
+    static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -19,60 +19,383 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A lock spanning a group of backing locks. When this composite lock is locked, it locks all backing locks, and when
  * unlocked, it unlocks all backing locks. Employs roll back logic to ensure that either all locks are acquired
  * or no locks are acquired. Locks are unlocked in the reverse of the order in which the were acquired.
  * <p/>
- * This class delegates most of its implementation to the {@link Locks} utility class.
+ * This class delegates most of its implementation to the array variants of the methods in the {@link Locks} utility
+ * class. The backing locks are copied into an array on construction, so acquiring and releasing the composite lock
+ * does not allocate.
+ * <p/>
+ * The backing locks are acquired in the order supplied, so composite locks sharing some backing locks must be
+ * constructed with those locks in the same order to avoid deadlock. Alternatively, the
+ * {@link #inCanonicalOrder(Lock...)} factory methods sort the backing locks on construction into a global order
+ * defined by {@link Locks#canonicalOrder()}, so that composite locks can be constructed dynamically from locks
+ * supplied in any order.
+ * <p/>
+ * Conditions are supported. Awaiting a condition releases all backing locks, and re-acquires them before returning.
+ * See {@link #newCondition()}.
+ * <p/>
+ * Optionally a {@link LockMonitor} can be notified of acquisitions and releases of the composite lock, in mode
+ * {@link LockMode#GROUP}. A monitored composite lock first tries to acquire all backing locks without waiting, via
+ * their timed <tt>tryLock</tt> with a zero timeout, which unlike <tt>tryLock()</tt> honours the fairness of fair backing
+ * locks. Only if that fails does it wait for the backing locks, and report the time taken to acquire them all as the
+ * wait time.
+ * <p/>
+ * Once a condition has been created, or if monitored, the number of times each thread holds the composite lock, and
+ * if monitored the time at which it acquired it, are tracked in a thread local, which allows conditions to verify
+ * that the current thread holds the lock. Until then, acquiring and releasing the composite lock does no work beyond
+ * acquiring and releasing the backing locks. Holds acquired before the first condition was created are not tracked,
+ * so conditions should be created before the lock is used.
  *
  * @author Niall Gallagher
  */
 public class CompositeLock implements Lock {
 
-    final Deque<Lock> locks;
+    final Lock[] locks;
+    final LockMonitor monitor;
+    // For each thread, the number of holds, and the time of the outermost acquisition if monitored; null until a
+    // condition is created unless monitored...
+    volatile ThreadLocal<long[]> holds;
 
     public CompositeLock(Lock... locks) {
-        this(new LinkedList<Lock>(Arrays.asList(locks)));
+        this(null, locks);
     }
 
     public CompositeLock(Deque<Lock> locks) {
-        this.locks = locks;
+        this(null, locks);
+    }
+
+    public CompositeLock(LockMonitor monitor, Lock... locks) {
+        this.locks = locks.clone();
+        this.monitor = monitor;
+        if (monitor != null) {
+            this.holds = newHolds();
+        }
+    }
+
+    public CompositeLock(LockMonitor monitor, Deque<Lock> locks) {
+        this(monitor, locks.toArray(new Lock[locks.size()]));
+    }
+
+    /**
+     * Creates a composite lock which acquires the given locks in the order defined by {@link Locks#canonicalOrder()},
+     * rather than in the order supplied. The locks are sorted once, here. Composite locks created by this method
+     * cannot deadlock with each other, regardless of which locks they share.
+     *
+     * @param locks The backing locks, in any order
+     * @return A composite lock which acquires the given locks in canonical order
+     */
+    public static CompositeLock inCanonicalOrder(Lock... locks) {
+        return inCanonicalOrder(null, locks);
+    }
+
+    /**
+     * Creates a monitored composite lock which acquires the given locks in the order defined by
+     * {@link Locks#canonicalOrder()}, rather than in the order supplied.
+     *
+     * @param monitor The monitor to notify of acquisitions and releases of the composite lock
+     * @param locks The backing locks, in any order
+     * @return A composite lock which acquires the given locks in canonical order
+     * @see #inCanonicalOrder(Lock...)
+     */
+    public static CompositeLock inCanonicalOrder(LockMonitor monitor, Lock... locks) {
+        Lock[] sorted = locks.clone();
+        Locks.sortCanonically(sorted, 0, sorted.length);
+        return new CompositeLock(monitor, sorted);
     }
 
     @Override
     public void lock() {
-        Locks.lockAll(locks);
+        if (monitor == null) {
+            Locks.lockAll(locks, 0, locks.length);
+            acquired(0L);
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            if (tryLockAllWithoutWaiting()) {
+                acquired(0L);
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            // This method is not interruptible, so acquire the locks regardless and restore the interrupt...
+            interrupted = true;
+        }
+        long waitStartNanos = System.nanoTime();
+        Locks.lockAll(locks, 0, locks.length);
+        acquired(Math.max(1L, System.nanoTime() - waitStartNanos));
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        Locks.lockInterruptiblyAll(locks);
+        if (monitor == null) {
+            Locks.lockInterruptiblyAll(locks, 0, locks.length);
+            acquired(0L);
+            return;
+        }
+        if (tryLockAllWithoutWaiting()) {
+            acquired(0L);
+            return;
+        }
+        long waitStartNanos = System.nanoTime();
+        Locks.lockInterruptiblyAll(locks, 0, locks.length);
+        acquired(Math.max(1L, System.nanoTime() - waitStartNanos));
     }
+
     @Override
     public boolean tryLock() {
-        return Locks.tryLockAll(locks);
+        if (Locks.tryLockAll(locks, 0, locks.length)) {
+            acquired(0L);
+            return true;
+        }
+        return false;
     }
 
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        return Locks.tryLockAll(time, unit, locks);
+        if (monitor == null) {
+            if (Locks.tryLockAll(time, unit, locks, 0, locks.length)) {
+                acquired(0L);
+                return true;
+            }
+            return false;
+        }
+        if (tryLockAllWithoutWaiting()) {
+            acquired(0L);
+            return true;
+        }
+        long waitStartNanos = System.nanoTime();
+        if (Locks.tryLockAll(time, unit, locks, 0, locks.length)) {
+            acquired(Math.max(1L, System.nanoTime() - waitStartNanos));
+            return true;
+        }
+        monitor.timedOut(this, LockMode.GROUP, System.nanoTime() - waitStartNanos, null);
+        return false;
+    }
+
+    /**
+     * Tries to acquire all backing locks without waiting, so that a monitored acquisition can tell whether it waited.
+     * Uses the timed <tt>tryLock</tt> with a zero timeout, which unlike <tt>tryLock()</tt> does not barge ahead of
+     * threads waiting for fair backing locks.
+     */
+    boolean tryLockAllWithoutWaiting() throws InterruptedException {
+        return Locks.tryLockAll(0L, TimeUnit.NANOSECONDS, locks, 0, locks.length);
     }
 
     @Override
     public void unlock() {
         // Unlock in reverse order...
-        Locks.unlockAll(new Iterable<Lock>() {
+        Locks.unlockAllInReverseOrder(locks, 0, locks.length);
+        ThreadLocal<long[]> holds = this.holds;
+        if (holds == null) {
+            return;
+        }
+        long[] threadHolds = holds.get();
+        if (threadHolds[0] > 0L && --threadHolds[0] == 0L && monitor != null) {
+            monitor.released(this, LockMode.GROUP, System.nanoTime() - threadHolds[1]);
+        }
+    }
+
+    /**
+     * Records the acquisition by the current thread if holds are tracked, and notifies the monitor if monitored and
+     * it is the outermost acquisition.
+     */
+    void acquired(long waitNanos) {
+        ThreadLocal<long[]> holds = this.holds;
+        if (holds == null) {
+            return;
+        }
+        long[] threadHolds = holds.get();
+        if (threadHolds[0]++ == 0L && monitor != null) {
+            threadHolds[1] = System.nanoTime();
+            monitor.acquired(this, LockMode.GROUP, waitNanos, null);
+        }
+    }
+
+    /**
+     * Returns the thread local in which holds are tracked, creating it if this is the first condition.
+     */
+    ThreadLocal<long[]> trackHolds() {
+        ThreadLocal<long[]> holds = this.holds;
+        if (holds == null) {
+            synchronized (locks) {
+                holds = this.holds;
+                if (holds == null) {
+                    holds = this.holds = newHolds();
+                }
+            }
+        }
+        return holds;
+    }
+
+    static ThreadLocal<long[]> newHolds() {
+        return new ThreadLocal<long[]>() {
             @Override
-            public Iterator<Lock> iterator() {
-                return locks.descendingIterator();
+            protected long[] initialValue() {
+                return new long[2];
             }
-        });
+        };
     }
 
+    /**
+     * Returns a new condition bound to this composite lock. Awaiting the condition releases all backing locks in
+     * reverse order, waits to be signalled, and then re-acquires all backing locks, with the same roll back logic as
+     * {@link #lock()}, before returning or throwing an exception. The backing locks may therefore be acquired by
+     * other threads while the thread is waiting.
+     * <p/>
+     * A thread must hold this composite lock to signal the condition, and must hold it exactly once to await the
+     * condition, otherwise an <tt>IllegalMonitorStateException</tt> is thrown. A thread which held it reentrantly
+     * would continue to hold the backing locks while waiting, and so might never be signalled.
+     * <p/>
+     * Creating the first condition of an unmonitored composite lock starts tracking holds per thread, and a thread
+     * which acquired the composite lock before then is treated by conditions as not holding it.
+     *
+     * @return A new condition bound to this composite lock
+     */
     @Override
     public Condition newCondition() {
-        throw new UnsupportedOperationException("This lock does not support conditions");
+        return new CompositeCondition(trackHolds());
+    }
+
+    /**
+     * A condition of the composite lock. Waiting threads queue on a condition of an internal lock, which a waiting
+     * thread acquires before releasing the backing locks, and which the condition releases atomically when the thread
+     * starts waiting. A thread which acquires the backing locks and then signals the condition must first acquire the
+     * internal lock, and so cannot signal before the waiting thread has been queued. The internal lock is released
+     * before the backing locks are re-acquired, and is only held briefly while holding backing locks, and so it
+     * cannot cause deadlock.
+     */
+    class CompositeCondition implements Condition {
+
+        final ReentrantLock waitLock = new ReentrantLock();
+        final Condition condition = waitLock.newCondition();
+        final ThreadLocal<long[]> holds;
+
+        CompositeCondition(ThreadLocal<long[]> holds) {
+            this.holds = holds;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            release();
+            try {
+                condition.await();
+            }
+            finally {
+                reacquire();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            release();
+            try {
+                condition.awaitUninterruptibly();
+            }
+            finally {
+                reacquire();
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            release();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            }
+            finally {
+                reacquire();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            release();
+            try {
+                return condition.await(time, unit);
+            }
+            finally {
+                reacquire();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            release();
+            try {
+                return condition.awaitUntil(deadline);
+            }
+            finally {
+                reacquire();
+            }
+        }
+
+        @Override
+        public void signal() {
+            validateHeld();
+            waitLock.lock();
+            try {
+                condition.signal();
+            }
+            finally {
+                waitLock.unlock();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            validateHeld();
+            waitLock.lock();
+            try {
+                condition.signalAll();
+            }
+            finally {
+                waitLock.unlock();
+            }
+        }
+
+        /**
+         * Acquires the internal lock and then releases the composite lock, which the current thread must hold exactly
+         * once. Releases the internal lock again if the composite lock could not be released.
+         */
+        void release() {
+            long threadHolds = holds.get()[0];
+            if (threadHolds != 1L) {
+                throw new IllegalMonitorStateException(threadHolds == 0L
+                        ? "Cannot await condition, as this thread does not hold the composite lock"
+                        : "Cannot await condition, as this thread holds the composite lock reentrantly");
+            }
+            waitLock.lock();
+            try {
+                unlock();
+            }
+            catch (RuntimeException e) {
+                waitLock.unlock();
+                throw e;
+            }
+        }
+
+        /**
+         * Releases the internal lock, which the condition re-acquired when the thread stopped waiting, and then
+         * re-acquires the composite lock.
+         */
+        void reacquire() {
+            waitLock.unlock();
+            lock();
+        }
+
+        void validateHeld() {
+            if (holds.get()[0] == 0L) {
+                throw new IllegalMonitorStateException("Cannot signal condition, as this thread does not hold the composite lock");
+            }
+        }
     }
 }
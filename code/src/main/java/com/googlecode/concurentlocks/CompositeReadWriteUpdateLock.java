@@ -0,0 +1,628 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock.OptimisticUpdateFailure;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock.APPLY;
+import static com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock.GET;
+import static com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock.RUN;
+
+/**
+ * A {@link ReadWriteUpdateLock} spanning a group of member {@link ReadWriteUpdateLock}s, such as the locks of several
+ * partitions of a data structure. Acquiring the read, update or write lock of the composite acquires the
+ * corresponding lock of every member, with roll back logic to ensure that either all member locks are acquired or
+ * none are.
+ * <p/>
+ * The members are sorted on construction into the order defined by {@link Locks#canonicalOrder()}, and their read
+ * and update locks are acquired in that order, so composites sharing some members cannot deadlock with each other.
+ * <p/>
+ * The update lock of the composite holds the update lock of every member, which does not block readers of any
+ * member. Acquiring the write lock upgrades all members together: it blocks waiting for the write lock of at most one
+ * member at a time, and only tries to acquire the write locks of the other members, without waiting. If any member
+ * still has readers, the write locks acquired so far are released, so that readers of those members are admitted
+ * again, and the composite waits for the write lock of that member instead, as described for
+ * {@link Locks#lockAllWithBackoff(Lock[], int, int)}. Thus readers keep flowing on all members but one until the
+ * write locks of all members can be held at once. Acquiring the write lock without holding the update lock first
+ * acquires the update locks of all members, and releases them again when the write lock is released.
+ * <p/>
+ * The members must support releasing the update lock while holding the write lock, and acquiring the write lock
+ * while holding the update lock, as {@link ReentrantReadWriteUpdateLock} does. The locks of the members can still be
+ * acquired individually by threads accessing only one partition.
+ *
+ * <h2>Optimistic Reads</h2>
+ * A stamp issued by {@link #tryOptimisticRead()} refers to a snapshot of the stamps of all members, which is stored
+ * in a thread local, so that a stamp fits in a long regardless of the number of members. Therefore only the thread
+ * which obtained a stamp can validate it, and only until that thread next calls {@link #tryOptimisticRead()},
+ * including indirectly via {@link #read read} or {@link #update update}. Otherwise {@link #validate(long)} returns
+ * false, and so callers fall back to acquiring the read lock, which is always safe.
+ *
+ * <h2>Conditions</h2>
+ * The read lock and the update lock support conditions, which release all member locks while waiting, as described
+ * for {@link CompositeLock#newCondition()}. The write lock does not support conditions.
+ *
+ * @author Niall Gallagher
+ */
+public class CompositeReadWriteUpdateLock implements ReadWriteUpdateLock {
+
+    final ReadWriteUpdateLock[] members;
+    final Lock[] updateLocks;
+    final Lock[] writeLocks;
+    final CompositeLock readGroup;
+    final CompositeLock updateGroup;
+
+    final UpdateLock updateLock = new UpdateLock();
+    final WriteLock writeLock = new WriteLock();
+
+    // For each thread, its holds of the composite locks and the member stamps of its last optimistic read...
+    final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState(members.length);
+        }
+    };
+
+    // Handles act on the current thread's holds, so one handle per lock serves every acquisition...
+    final LockHandle readLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            readGroup.unlock();
+        }
+    };
+    final LockHandle updateLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            updateLock.unlock();
+        }
+    };
+    final LockHandle writeLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            writeLock.unlock();
+        }
+    };
+
+    // Upgrades a function which is running while holding the update lock...
+    final Upgrader lockedUpgrader = new Upgrader() {
+        @Override
+        public LockHandle acquireWriteLock() {
+            return CompositeReadWriteUpdateLock.this.acquireWriteLock();
+        }
+    };
+
+    /**
+     * Creates a composite of the given locks.
+     *
+     * @param members The member locks, in any order
+     * @throws IllegalArgumentException If no member locks are supplied
+     */
+    public CompositeReadWriteUpdateLock(ReadWriteUpdateLock... members) {
+        if (members.length == 0) {
+            throw new IllegalArgumentException("At least one member lock must be supplied");
+        }
+        this.members = members.clone();
+        Arrays.sort(this.members, Locks.canonicalOrder());
+        Lock[] readLocks = new Lock[members.length];
+        this.updateLocks = new Lock[members.length];
+        this.writeLocks = new Lock[members.length];
+        for (int i = 0; i < members.length; i++) {
+            readLocks[i] = this.members[i].readLock();
+            updateLocks[i] = this.members[i].updateLock();
+            writeLocks[i] = this.members[i].writeLock();
+        }
+        this.readGroup = new CompositeLock(readLocks);
+        this.updateGroup = new CompositeLock(updateLocks);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The returned lock is a {@link CompositeLock} of the read locks of the members.
+     */
+    @Override
+    public Lock readLock() {
+        return readGroup;
+    }
+
+    @Override
+    public Lock updateLock() {
+        return updateLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the read lock.
+     */
+    @Override
+    public LockHandle acquireReadLock() {
+        readGroup.lock();
+        return readLockHandle;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the update lock.
+     */
+    @Override
+    public LockHandle acquireUpdateLock() {
+        updateLock.lock();
+        return updateLockHandle;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the write lock.
+     */
+    @Override
+    public LockHandle acquireWriteLock() {
+        writeLock.lock();
+        return writeLockHandle;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The stamp can only be validated by the current thread, until it next calls this method. See
+     * <i>Optimistic Reads</i> in the class documentation.
+     */
+    @Override
+    public long tryOptimisticRead() {
+        ThreadState threadState = threadStates.get();
+        // Invalidate the previous stamp before overwriting the member stamps to which it refers...
+        threadState.sequence++;
+        long[] memberStamps = threadState.memberStamps;
+        for (int i = 0; i < members.length; i++) {
+            long memberStamp = members[i].tryOptimisticRead();
+            if (memberStamp == 0L) {
+                return 0L;
+            }
+            memberStamps[i] = memberStamp;
+        }
+        return threadState.stamp();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Returns false if the stamp was not issued to the current thread by its last call to {@link #tryOptimisticRead()}.
+     */
+    @Override
+    public boolean validate(long stamp) {
+        ThreadState threadState = threadStates.get();
+        if (stamp == 0L || stamp != threadState.stamp()) {
+            return false;
+        }
+        long[] memberStamps = threadState.memberStamps;
+        for (int i = 0; i < members.length; i++) {
+            if (!members[i].validate(memberStamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(Supplier<? extends T> reader) {
+        return (T) read(reader, GET);
+    }
+
+    @Override
+    public <A, T> T read(A argument, Function<? super A, ? extends T> reader) {
+        if (threadStates.get().updateHolds == 0) {
+            long stamp = tryOptimisticRead();
+            if (stamp != 0L) {
+                try {
+                    T result = reader.apply(argument);
+                    if (validate(stamp)) {
+                        return result;
+                    }
+                }
+                catch (RuntimeException e) {
+                    // The exception may have been caused by reading inconsistent values, if so retry under the lock...
+                    if (validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            readGroup.lock();
+            try {
+                return reader.apply(argument);
+            }
+            finally {
+                readGroup.unlock();
+            }
+        }
+        // The update lock already excludes writers...
+        return reader.apply(argument);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * An {@link Upgrader} is allocated for each call which runs the function optimistically.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T update(Function<? super Upgrader, ? extends T> updater) {
+        return (T) update(updater, APPLY);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * An {@link Upgrader} is allocated for each call which runs the function optimistically.
+     */
+    @Override
+    public <A, T> T update(A argument, BiFunction<? super A, ? super Upgrader, ? extends T> updater) {
+        if (threadStates.get().updateHolds > 0) {
+            return updater.apply(argument, lockedUpgrader);
+        }
+        long stamp = tryOptimisticRead();
+        if (stamp != 0L) {
+            OptimisticUpgrader upgrader = new OptimisticUpgrader(stamp);
+            try {
+                T result = updater.apply(argument, upgrader);
+                // If the function upgraded, the stamp was validated while holding the update lock; if validation
+                // failed, retry under the lock even if the function caught the failure and returned regardless...
+                if (!upgrader.failed && (upgrader.updateHeld || validate(stamp))) {
+                    return result;
+                }
+            }
+            catch (OptimisticUpdateFailure e) {
+                // A write intervened before the function upgraded, retry under the lock...
+            }
+            catch (RuntimeException e) {
+                if (!upgrader.failed && (upgrader.updateHeld || validate(stamp))) {
+                    throw e;
+                }
+            }
+            finally {
+                if (upgrader.updateHeld) {
+                    updateLock.unlock();
+                }
+            }
+        }
+        updateLock.lock();
+        try {
+            return updater.apply(argument, lockedUpgrader);
+        }
+        finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(Runnable writer) {
+        write(writer, RUN);
+    }
+
+    @Override
+    public <A> void write(A argument, Consumer<? super A> writer) {
+        writeLock.lock();
+        try {
+            writer.accept(argument);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the current thread holds the update lock, including as part of holding the write lock
+     */
+    public boolean isUpdateLockedByCurrentThread() {
+        return threadStates.get().updateHolds > 0;
+    }
+
+    /**
+     * @return true if the current thread holds the write lock
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return threadStates.get().writeHolds > 0;
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its member locks.
+     *
+     * @return a string identifying this lock, as well as its member locks
+     */
+    @Override
+    public String toString() {
+        return super.toString() + Arrays.toString(members);
+    }
+
+    /**
+     * The holds of the composite locks by a thread, and the member stamps of its last optimistic read.
+     */
+    static final class ThreadState {
+        final long threadId = Thread.currentThread().getId();
+        final long[] memberStamps;
+        int sequence;
+        int updateHolds;
+        int writeHolds;
+
+        ThreadState(int members) {
+            this.memberStamps = new long[members];
+        }
+
+        /**
+         * Returns the stamp of the last optimistic read, which is non-zero and distinct from those of other threads.
+         */
+        long stamp() {
+            return threadId << 32 | (sequence & 0x7FFFFFFFL) << 1 | 1L;
+        }
+    }
+
+    /**
+     * Acquires the update locks of all members, in canonical order.
+     */
+    class UpdateLock implements Lock {
+
+        @Override
+        public void lock() {
+            updateGroup.lock();
+            threadStates.get().updateHolds++;
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            updateGroup.lockInterruptibly();
+            threadStates.get().updateHolds++;
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (updateGroup.tryLock()) {
+                threadStates.get().updateHolds++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (updateGroup.tryLock(time, unit)) {
+                threadStates.get().updateHolds++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            ThreadState threadState = threadStates.get();
+            if (threadState.updateHolds == 0) {
+                throw new IllegalMonitorStateException("Cannot release update lock, as this thread does not hold it");
+            }
+            if (threadState.updateHolds == threadState.writeHolds) {
+                throw new IllegalMonitorStateException("Cannot release update lock, as this thread holds it only by virtue of holding the write lock");
+            }
+            updateGroup.unlock();
+            threadState.updateHolds--;
+        }
+
+        /**
+         * Returns a condition which releases the update locks of all members while waiting. The current thread must
+         * hold the update lock exactly once, and must not hold the write lock, to await the condition.
+         *
+         * @return A new condition bound to the update lock
+         */
+        @Override
+        public Condition newCondition() {
+            return new UpdateCondition(updateGroup.newCondition());
+        }
+    }
+
+    /**
+     * A condition of the update lock, which refuses to await while the current thread holds the write lock, as it
+     * would release the update locks of all members while continuing to hold their write locks.
+     */
+    class UpdateCondition implements Condition {
+
+        final Condition condition;
+
+        UpdateCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            validateWriteNotHeld();
+            condition.await();
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            validateWriteNotHeld();
+            condition.awaitUninterruptibly();
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            validateWriteNotHeld();
+            return condition.awaitNanos(nanosTimeout);
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            validateWriteNotHeld();
+            return condition.await(time, unit);
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            validateWriteNotHeld();
+            return condition.awaitUntil(deadline);
+        }
+
+        @Override
+        public void signal() {
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            condition.signalAll();
+        }
+
+        void validateWriteNotHeld() {
+            if (threadStates.get().writeHolds != 0) {
+                throw new IllegalMonitorStateException("Cannot await condition, as this thread holds the write lock");
+            }
+        }
+    }
+
+    /**
+     * Upgrades the update locks of all members to write locks together. If the current thread does not already hold
+     * the update lock, acquires the update locks of all members first, and releases them again once the write locks
+     * are held, as each member then holds its update lock by virtue of its write lock.
+     */
+    class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            updateGroup.lock();
+            try {
+                Locks.lockAllWithBackoff(writeLocks, 0, writeLocks.length);
+            }
+            finally {
+                updateGroup.unlock();
+            }
+            acquired();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            updateGroup.lockInterruptibly();
+            try {
+                Locks.lockInterruptiblyAllWithBackoff(writeLocks, 0, writeLocks.length);
+            }
+            finally {
+                updateGroup.unlock();
+            }
+            acquired();
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!updateGroup.tryLock()) {
+                return false;
+            }
+            boolean acquired;
+            try {
+                acquired = Locks.tryLockAll(writeLocks, 0, writeLocks.length);
+            }
+            finally {
+                updateGroup.unlock();
+            }
+            if (acquired) {
+                acquired();
+            }
+            return acquired;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long deadlineNanos = System.nanoTime() + unit.toNanos(time);
+            if (!updateGroup.tryLock(time, unit)) {
+                return false;
+            }
+            boolean acquired;
+            try {
+                acquired = Locks.tryLockAllWithBackoff(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS, writeLocks, 0, writeLocks.length);
+            }
+            finally {
+                updateGroup.unlock();
+            }
+            if (acquired) {
+                acquired();
+            }
+            return acquired;
+        }
+
+        @Override
+        public void unlock() {
+            ThreadState threadState = threadStates.get();
+            if (threadState.writeHolds == 0) {
+                throw new IllegalMonitorStateException("Cannot release write lock, as this thread does not hold it");
+            }
+            Locks.unlockAllInReverseOrder(writeLocks, 0, writeLocks.length);
+            threadState.writeHolds--;
+            threadState.updateHolds--;
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("The write lock of a composite lock does not support conditions");
+        }
+
+        void acquired() {
+            ThreadState threadState = threadStates.get();
+            threadState.writeHolds++;
+            threadState.updateHolds++;
+        }
+    }
+
+    /**
+     * Upgrades a function which is running optimistically, by acquiring the update lock and then validating that no
+     * write has occurred on any member since the function started, before acquiring the write lock.
+     */
+    class OptimisticUpgrader implements Upgrader {
+        final long stamp;
+        boolean updateHeld;
+        // Set if validation failed; the function's result is then discarded whether or not it caught the failure...
+        boolean failed;
+
+        OptimisticUpgrader(long stamp) {
+            this.stamp = stamp;
+        }
+
+        @Override
+        public LockHandle acquireWriteLock() {
+            if (failed) {
+                throw OptimisticUpdateFailure.INSTANCE;
+            }
+            if (!updateHeld) {
+                updateLock.lock();
+                updateHeld = true;
+                if (!validate(stamp)) {
+                    failed = true;
+                    throw OptimisticUpdateFailure.INSTANCE;
+                }
+            }
+            return CompositeReadWriteUpdateLock.this.acquireWriteLock();
+        }
+    }
+}
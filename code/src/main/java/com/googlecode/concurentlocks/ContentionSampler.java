@@ -0,0 +1,308 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A {@link LockMonitor} which attributes contention to the code which waited for locks: for a sample of contended
+ * acquisitions and timed out acquisition attempts, it captures the stack of the waiting thread, and aggregates the
+ * time spent waiting per call site and {@link LockMode}.
+ * <p/>
+ * A call site is the given number of innermost stack frames outside of the library's locks, so with a depth of one,
+ * it is the method which called {@code lock()}. Greater depths distinguish callers which acquire the lock via a
+ * shared helper method. Uncontended acquisitions are never sampled, and the cost of sampling is bounded by the
+ * sample rate: with a rate of 0.01, one in a hundred contended acquisitions walks the stack. The wait times recorded
+ * are those of the sampled acquisitions, so estimate the total wait at each call site by dividing by the sample rate.
+ * <p/>
+ * Usage:
+ * <pre>
+ * ContentionSampler sampler = new ContentionSampler(0.01, 3);
+ * ReentrantReadWriteUpdateLock lock = ReentrantReadWriteUpdateLock.builder().monitor(sampler).build();
+ * ...
+ * for (ContentionSampler.CallSite callSite : sampler.getCallSites()) {
+ *     System.out.println(callSite);
+ * }
+ * </pre>
+ * A sampler may be shared by a number of locks, in which case call sites aggregate waits for all of them.
+ *
+ * @author Niall Gallagher
+ */
+public class ContentionSampler implements LockMonitor {
+
+    /**
+     * The prefix of the names of classes in this library's package and its subpackages.
+     */
+    static final String LIBRARY_PACKAGE_PREFIX = ContentionSampler.class.getPackage().getName() + ".";
+
+    /**
+     * The location from which this library's classes were loaded, which distinguishes them from application classes,
+     * such as tests, declared in the same package.
+     */
+    static final CodeSource LIBRARY_CODE_SOURCE = ContentionSampler.class.getProtectionDomain().getCodeSource();
+
+    final double sampleRate;
+    final int depth;
+    final ConcurrentMap<CallSite, CallSite> callSites = new ConcurrentHashMap<CallSite, CallSite>();
+
+    final StackWalker stackWalker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    final Function<Stream<StackWalker.StackFrame>, StackTraceElement[]> callerFrames =
+            new Function<Stream<StackWalker.StackFrame>, StackTraceElement[]>() {
+                @Override
+                public StackTraceElement[] apply(Stream<StackWalker.StackFrame> frames) {
+                    StackTraceElement[] callerFrames = new StackTraceElement[depth];
+                    int count = 0;
+                    for (Iterator<StackWalker.StackFrame> iterator = frames.iterator(); iterator.hasNext() && count < depth; ) {
+                        StackWalker.StackFrame frame = iterator.next();
+                        if (count > 0 || !isLibraryClass(frame.getDeclaringClass())) {
+                            callerFrames[count++] = frame.toStackTraceElement();
+                        }
+                    }
+                    return count == depth ? callerFrames : Arrays.copyOf(callerFrames, count);
+                }
+            };
+
+    /**
+     * Creates a sampler which attributes waits to the method which called the lock.
+     *
+     * @param sampleRate the fraction of contended acquisitions to sample, greater than zero and at most one
+     */
+    public ContentionSampler(double sampleRate) {
+        this(sampleRate, 1);
+    }
+
+    /**
+     * @param sampleRate the fraction of contended acquisitions to sample, greater than zero and at most one
+     * @param depth the number of stack frames which identify a call site, at least one
+     */
+    public ContentionSampler(double sampleRate, int depth) {
+        if (!(sampleRate > 0.0 && sampleRate <= 1.0)) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("Invalid depth: " + depth);
+        }
+        this.sampleRate = sampleRate;
+        this.depth = depth;
+    }
+
+    @Override
+    public void acquired(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        if (waitNanos > 0L && shouldSample()) {
+            sample(mode, waitNanos, false);
+        }
+    }
+
+    @Override
+    public void timedOut(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        if (shouldSample()) {
+            sample(mode, waitNanos, true);
+        }
+    }
+
+    @Override
+    public void released(Object lock, LockMode mode, long holdNanos) {
+        // Only waits are attributed...
+    }
+
+    boolean shouldSample() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    void sample(LockMode mode, long waitNanos, boolean timedOut) {
+        CallSite key = new CallSite(mode, stackWalker.walk(callerFrames));
+        CallSite callSite = callSites.get(key);
+        if (callSite == null) {
+            CallSite existing = callSites.putIfAbsent(key, key);
+            callSite = existing == null ? key : existing;
+        }
+        callSite.record(waitNanos, timedOut);
+    }
+
+    /**
+     * Returns true if the given class is part of this library, and so its methods are part of acquiring a lock rather
+     * than call sites: that is, if it is declared in this library's package or a subpackage, and was loaded from the
+     * same location as this library.
+     */
+    static boolean isLibraryClass(Class<?> declaringClass) {
+        if (!declaringClass.getName().startsWith(LIBRARY_PACKAGE_PREFIX)) {
+            return false;
+        }
+        CodeSource codeSource = declaringClass.getProtectionDomain().getCodeSource();
+        return codeSource == null ? LIBRARY_CODE_SOURCE == null : codeSource.equals(LIBRARY_CODE_SOURCE);
+    }
+
+    /**
+     * @return the call sites sampled so far, in descending order of the total time they waited
+     */
+    public List<CallSite> getCallSites() {
+        List<CallSite> result = new ArrayList<CallSite>(callSites.values());
+        Collections.sort(result, new Comparator<CallSite>() {
+            @Override
+            public int compare(CallSite o1, CallSite o2) {
+                long wait1 = o1.getTotalWaitNanos(), wait2 = o2.getTotalWaitNanos();
+                return wait1 < wait2 ? 1 : (wait1 == wait2 ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param mode a kind of lock acquisition
+     * @return the call sites sampled so far which waited in the given mode, in descending order of the total time
+     * they waited
+     */
+    public List<CallSite> getCallSites(LockMode mode) {
+        List<CallSite> result = getCallSites();
+        for (Iterator<CallSite> iterator = result.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().mode != mode) {
+                iterator.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards the call sites sampled so far.
+     */
+    public void clear() {
+        callSites.clear();
+    }
+
+    /**
+     * @return a summary of each call site sampled, in descending order of the total time it waited
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CallSite callSite : getCallSites()) {
+            sb.append(callSite).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The waits sampled in one {@link LockMode} at one call site.
+     */
+    public static class CallSite {
+
+        final LockMode mode;
+        final StackTraceElement[] stackTrace;
+        final int hashCode;
+
+        final LongAdder samples = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder totalWaitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+
+        CallSite(LockMode mode, StackTraceElement[] stackTrace) {
+            this.mode = mode;
+            this.stackTrace = stackTrace;
+            this.hashCode = 31 * mode.hashCode() + Arrays.hashCode(stackTrace);
+        }
+
+        void record(long waitNanos, boolean timedOut) {
+            samples.increment();
+            if (timedOut) {
+                timeouts.increment();
+            }
+            totalWaitNanos.add(waitNanos);
+            for (long max = maxWaitNanos.get(); waitNanos > max; max = maxWaitNanos.get()) {
+                if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @return the kind of acquisition in which the call site waited
+         */
+        public LockMode getMode() {
+            return mode;
+        }
+
+        /**
+         * @return the innermost stack frames outside of the library's locks, innermost first
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        /**
+         * @return the number of waits sampled, including timed out attempts
+         */
+        public long getSamples() {
+            return samples.sum();
+        }
+
+        /**
+         * @return the number of sampled waits which timed out
+         */
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return the total time spent in the sampled waits
+         */
+        public long getTotalWaitNanos() {
+            return totalWaitNanos.sum();
+        }
+
+        /**
+         * @return the longest sampled wait
+         */
+        public long getMaxWaitNanos() {
+            return maxWaitNanos.get();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallSite)) {
+                return false;
+            }
+            CallSite other = (CallSite) o;
+            return mode == other.mode && Arrays.equals(stackTrace, other.stackTrace);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return mode + " " + Arrays.toString(stackTrace) + ": samples=" + getSamples() + ", timeouts="
+                    + getTimeouts() + ", totalWait=" + getTotalWaitNanos() + "ns, maxWait=" + getMaxWaitNanos() + "ns";
+        }
+    }
+}
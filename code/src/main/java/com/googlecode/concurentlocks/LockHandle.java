@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+/**
+ * A lock acquired via one of the <tt>acquire</tt> methods of {@link ReadWriteUpdateLock}, which is released when
+ * closed, allowing the lock to be used with try-with-resources:
+ * <pre>
+ * try (LockHandle handle = readWriteUpdateLock.acquireReadLock()) {
+ *     // read...
+ * }
+ * </pre>
+ * Handles are not bound to a particular acquisition or thread: closing a handle releases one hold of the
+ * corresponding lock by the current thread, exactly as calling <tt>unlock()</tt> on that lock would. As such a lock
+ * can return the same handle every time it is acquired, and acquiring a lock this way does not allocate.
+ *
+ * @author Niall Gallagher
+ */
+public interface LockHandle extends AutoCloseable {
+
+    /**
+     * Releases one hold of the lock by the current thread.
+     *
+     * @throws IllegalMonitorStateException If the current thread does not hold the lock
+     */
+    @Override
+    void close();
+}
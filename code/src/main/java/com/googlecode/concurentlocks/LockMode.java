@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+/**
+ * The kinds of lock acquisition and hold reported to a {@link LockMonitor}.
+ *
+ * @author Niall Gallagher
+ */
+public enum LockMode {
+
+    /**
+     * The read lock of a {@link ReentrantReadWriteUpdateLock}.
+     */
+    READ,
+
+    /**
+     * The update lock of a {@link ReentrantReadWriteUpdateLock}. As the write lock includes the update lock, update
+     * lock holds also include periods in which the update lock was held as part of holding the write lock.
+     */
+    UPDATE,
+
+    /**
+     * The write lock of a {@link ReentrantReadWriteUpdateLock}, acquired by a thread which did not hold the update
+     * lock. Holds of the write lock are reported in this mode however it was acquired.
+     */
+    WRITE,
+
+    /**
+     * The write lock of a {@link ReentrantReadWriteUpdateLock}, acquired by a thread which held the update lock, and
+     * so which waited only for readers to drain. Only reported for acquisitions: holds of the write lock are reported
+     * as {@link #WRITE}.
+     */
+    UPGRADE,
+
+    /**
+     * All of the backing locks of a {@link CompositeLock}.
+     */
+    GROUP
+}
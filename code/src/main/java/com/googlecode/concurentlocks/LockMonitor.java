@@ -0,0 +1,61 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+/**
+ * Receives notifications of lock acquisitions and releases, from a {@link ReentrantReadWriteUpdateLock} or a
+ * {@link CompositeLock} configured to report to it. See {@link ReentrantReadWriteUpdateLock.Builder#monitor} and
+ * {@link CompositeLock#CompositeLock(LockMonitor, java.util.Deque)}.
+ * <p/>
+ * Only the outermost acquisition and the final release by a thread are reported, not reentrant holds. Methods are
+ * called by the thread which acquired or released the lock, after it did so, and should return quickly and not
+ * allocate, as they are called on every acquisition and release. The same monitor may be shared by many locks.
+ *
+ * @author Niall Gallagher
+ */
+public interface LockMonitor {
+
+    /**
+     * Called when a thread has acquired a lock.
+     *
+     * @param lock the lock which was acquired
+     * @param mode the kind of acquisition
+     * @param waitNanos zero if the lock was acquired without waiting, otherwise the time for which the thread waited,
+     * which is at least one nanosecond
+     * @param owner if the thread waited, the thread which held the update lock when it started waiting, if any;
+     * otherwise null
+     */
+    void acquired(Object lock, LockMode mode, long waitNanos, Thread owner);
+
+    /**
+     * Called when a timed attempt by a thread to acquire a lock timed out.
+     *
+     * @param lock the lock which was not acquired
+     * @param mode the kind of acquisition
+     * @param waitNanos the time for which the thread waited
+     * @param owner the thread which held the update lock when the thread started waiting, if any, otherwise null
+     */
+    void timedOut(Object lock, LockMode mode, long waitNanos, Thread owner);
+
+    /**
+     * Called when a thread has released a lock which it held.
+     *
+     * @param lock the lock which was released
+     * @param mode the kind of hold, which is never {@link LockMode#UPGRADE}
+     * @param holdNanos the time for which the thread held the lock
+     */
+    void released(Object lock, LockMode mode, long holdNanos);
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LockMonitor} which records, per {@link LockMode}, the number of acquisitions, the number of contended
+ * acquisitions (those which had to wait), the number of timed out acquisition attempts, and histograms of wait times
+ * and of hold times.
+ * <p/>
+ * Recording is lock-free and does not allocate: counts are kept in striped counters, and histograms in fixed arrays
+ * of buckets striped by thread, so threads rarely contend on the same cache line. The same statistics may be shared
+ * by a number of locks, to aggregate them. Reading the statistics sums the stripes, so is more expensive than
+ * recording them, and is not atomic with respect to concurrent recording.
+ *
+ * @author Niall Gallagher
+ */
+public class LockStatistics implements LockMonitor {
+
+    final ModeStatistics[] modes;
+
+    public LockStatistics() {
+        LockMode[] values = LockMode.values();
+        this.modes = new ModeStatistics[values.length];
+        for (int i = 0; i < values.length; i++) {
+            modes[i] = new ModeStatistics(values[i]);
+        }
+    }
+
+    /**
+     * @param mode a kind of lock acquisition and hold
+     * @return the statistics recorded for that mode
+     */
+    public ModeStatistics get(LockMode mode) {
+        return modes[mode.ordinal()];
+    }
+
+    @Override
+    public void acquired(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        ModeStatistics statistics = modes[mode.ordinal()];
+        statistics.acquisitions.increment();
+        if (waitNanos > 0L) {
+            statistics.contendedAcquisitions.increment();
+            statistics.waitTimes.record(waitNanos);
+        }
+    }
+
+    @Override
+    public void timedOut(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        ModeStatistics statistics = modes[mode.ordinal()];
+        statistics.timeouts.increment();
+        statistics.waitTimes.record(waitNanos);
+    }
+
+    @Override
+    public void released(Object lock, LockMode mode, long holdNanos) {
+        modes[mode.ordinal()].holdTimes.record(holdNanos);
+    }
+
+    /**
+     * @return a summary of the statistics of each mode in which any acquisitions were recorded
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (ModeStatistics statistics : modes) {
+            if (statistics.getAcquisitions() != 0L || statistics.getTimeouts() != 0L) {
+                sb.append(statistics).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The statistics recorded for one {@link LockMode}.
+     */
+    public static class ModeStatistics {
+
+        final LockMode mode;
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contendedAcquisitions = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final Histogram waitTimes = new Histogram();
+        final Histogram holdTimes = new Histogram();
+
+        ModeStatistics(LockMode mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * @return the number of acquisitions, excluding reentrant acquisitions
+         */
+        public long getAcquisitions() {
+            return acquisitions.sum();
+        }
+
+        /**
+         * @return the number of acquisitions in which the thread had to wait
+         */
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions.sum();
+        }
+
+        /**
+         * @return the number of timed acquisition attempts which timed out
+         */
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return the times for which threads waited, in contended acquisitions and in timed out attempts
+         */
+        public Histogram getWaitTimes() {
+            return waitTimes;
+        }
+
+        /**
+         * @return the times for which threads held the lock, from the outermost acquisition to the final release
+         */
+        public Histogram getHoldTimes() {
+            return holdTimes;
+        }
+
+        @Override
+        public String toString() {
+            return mode + ": acquisitions=" + getAcquisitions() + ", contended=" + getContendedAcquisitions()
+                    + ", timeouts=" + getTimeouts() + ", waitTimes=" + waitTimes + ", holdTimes=" + holdTimes;
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds, with logarithmic buckets: bucket zero counts durations of zero, and
+     * bucket <i>b</i> counts durations from 2<sup><i>b</i>-1</sup> up to 2<sup><i>b</i></sup> - 1 nanoseconds.
+     */
+    public static class Histogram {
+
+        public static final int BUCKETS = 64;
+
+        static final int MAX_STRIPES = 16;
+
+        final AtomicLongArray counts;
+        final int stripeMask;
+
+        Histogram() {
+            int stripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+            this.stripeMask = stripes - 1;
+            this.counts = new AtomicLongArray(stripes * BUCKETS);
+        }
+
+        void record(long nanos) {
+            int bucket = BUCKETS - Long.numberOfLeadingZeros(Math.max(0L, nanos));
+            int stripe = (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+            counts.getAndIncrement(bucket + stripe * BUCKETS);
+        }
+
+        /**
+         * @param bucket a bucket, from zero to {@link #BUCKETS} - 1
+         * @return the number of durations recorded in the bucket
+         */
+        public long getCount(int bucket) {
+            long count = 0L;
+            for (int i = bucket; i < counts.length(); i += BUCKETS) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @return the number of durations recorded
+         */
+        public long getCount() {
+            long count = 0L;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @param bucket a bucket, from zero to {@link #BUCKETS} - 1
+         * @return the longest duration, in nanoseconds, counted in the bucket
+         */
+        public static long getUpperBound(int bucket) {
+            return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1L;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the durations recorded, which is the upper bound of the
+         * bucket containing that percentile, so is accurate to within a factor of two.
+         *
+         * @param percentile a percentile, from zero to 100
+         * @return an upper bound of the percentile in nanoseconds, or zero if no durations were recorded
+         */
+        public long getPercentile(double percentile) {
+            long[] bucketCounts = new long[BUCKETS];
+            long total = 0L;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                total += bucketCounts[bucket] = getCount(bucket);
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long cumulative = 0L;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                cumulative += bucketCounts[bucket];
+                if (cumulative >= rank && cumulative > 0L) {
+                    return getUpperBound(bucket);
+                }
+            }
+            return 0L;
+        }
+
+        @Override
+        public String toString() {
+            return "[count=" + getCount() + ", p50<=" + getPercentile(50) + "ns, p99<=" + getPercentile(99)
+                    + "ns, max<=" + getPercentile(100) + "ns]";
+        }
+    }
+}
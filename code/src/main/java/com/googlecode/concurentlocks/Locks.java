@@ -15,13 +15,26 @@
  */
 package com.googlecode.concurentlocks;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Utility methods to group-lock and group-unlock collections of locks, including roll back support to
  * ensure that either all locks are acquired or no locks are acquired.
+ * <p/>
+ * The {@code lockAll} family of methods acquire locks in the order supplied, blocking on each lock while holding the
+ * locks before it, and so callers must agree on an order to avoid deadlock. The {@code lockAllWithBackoff} family
+ * of methods instead block on at most one lock at a time, and so can acquire locks supplied in any order. The
+ * {@code lockAllInCanonicalOrder} family of methods sort the locks supplied into a global order, defined by
+ * {@link #canonicalOrder()}, before acquiring them.
  *
  * @author Niall Gallagher
  */
@@ -182,6 +195,580 @@ public class Locks {
         }
     }
 
+    // *************************
+    // *** Array variants... ***
+    // *************************
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#lock()} on the given number of locks in the given array, starting
+     * at the given offset, in ascending order of index. Automatically releases any locks acquired (in reverse order)
+     * by calling {@link java.util.concurrent.locks.Lock#unlock()} if an exception is thrown, before re-throwing the
+     * exception. Tracks the locks acquired by count, and so does not allocate.
+     *
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void lockAll(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        int acquired = 0;
+        try {
+            for (; acquired < length; acquired++) {
+                locks[offset + acquired].lock();
+            }
+        }
+        catch (RuntimeException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#lockInterruptibly()} on the given number of locks in the given
+     * array, starting at the given offset, in ascending order of index. Automatically releases any locks acquired (in
+     * reverse order) by calling {@link java.util.concurrent.locks.Lock#unlock()} if the thread is interrupted while
+     * waiting for a lock or if an exception is thrown, before re-throwing the exception. Tracks the locks acquired by
+     * count, and so does not allocate.
+     *
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> void lockInterruptiblyAll(L[] locks, int offset, int length) throws InterruptedException {
+        checkRange(locks, offset, length);
+        int acquired = 0;
+        try {
+            for (; acquired < length; acquired++) {
+                locks[offset + acquired].lockInterruptibly();
+            }
+        }
+        catch (InterruptedException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#tryLock()} on the given number of locks in the given array,
+     * starting at the given offset, in ascending order of index. Automatically releases any locks acquired (in reverse
+     * order) by calling {@link java.util.concurrent.locks.Lock#unlock()} if it is not possible to obtain any lock, or
+     * if an exception is thrown, before re-throwing the exception. Tracks the locks acquired by count, and so does not
+     * allocate.
+     *
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     * @return True if at least one lock was supplied and all supplied locks were acquired successfully, otherwise false
+     */
+    public static <L extends Lock> boolean tryLockAll(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        int acquired = 0;
+        try {
+            while (acquired < length && locks[offset + acquired].tryLock()) {
+                acquired++;
+            }
+        }
+        catch (RuntimeException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+        if (acquired < length || length == 0) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#tryLock(long, TimeUnit)} on the given number of locks in the given
+     * array, starting at the given offset, in ascending order of index. Automatically releases any locks acquired (in
+     * reverse order) by calling {@link java.util.concurrent.locks.Lock#unlock()} if it is not possible to obtain any
+     * lock within the remaining time within the timeout given, if the thread is interrupted while waiting for a lock,
+     * or if an exception is thrown, before re-throwing the exception. Tracks the locks acquired by count, and so does
+     * not allocate.
+     *
+     * @param time the maximum time to wait for all locks combined
+     * @param unit the time unit of the {@code time} argument
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     * @return True if at least one lock was supplied and all supplied locks were acquired successfully, otherwise false
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> boolean tryLockAll(long time, TimeUnit unit, L[] locks, int offset, int length) throws InterruptedException {
+        checkRange(locks, offset, length);
+        int acquired = 0;
+        try {
+            long limitNanos = unit.toNanos(time);
+            long startNanos = System.nanoTime();
+            while (acquired < length) {
+                long remainingNanos = acquired == 0
+                        ? limitNanos // No need to calculate remaining time in first iteration
+                        : limitNanos - (System.nanoTime() - startNanos); // recalculate in subsequent iterations
+
+                // As above, if remaining time is <= 0, locks should treat it as a non-blocking tryLock()...
+                if (!locks[offset + acquired].tryLock(remainingNanos, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+                acquired++;
+            }
+        }
+        catch (RuntimeException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+        catch (InterruptedException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            throw e;
+        }
+        if (acquired < length || length == 0) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, acquired);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#unlock()} on the given number of locks in the given array, starting
+     * at the given offset, in <b>ascending order</b> of index. <b>Note you may therefore wish to use
+     * {@link #unlockAllInReverseOrder(Lock[], int, int)} instead.</b>
+     *
+     * @param locks An array containing the locks to unlock
+     * @param offset The index of the first lock to unlock
+     * @param length The number of locks to unlock
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void unlockAll(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        for (int i = offset; i < offset + length; i++) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#unlock()} on the given number of locks in the given array, starting
+     * at the given offset, in <b>descending order</b> of index, which is the reverse of the order in which the array
+     * variants of the lock methods acquire them.
+     *
+     * @param locks An array containing the locks to unlock
+     * @param offset The index of the first lock to unlock
+     * @param length The number of locks to unlock
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void unlockAllInReverseOrder(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        for (int i = offset + length - 1; i >= offset; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    // ***********************************
+    // *** Canonical order variants... ***
+    // ***********************************
+
+    /**
+     * Returns a comparator which imposes a stable, global total order on objects, by their identity hash codes, and
+     * for objects whose identity hash codes are equal, by the order in which they were first compared. Threads which
+     * acquire overlapping groups of locks sorted in this order cannot deadlock with each other.
+     * <p/>
+     * The order of objects with equal identity hash codes is recorded in a table which holds the objects weakly.
+     *
+     * @return A comparator imposing a canonical order on locks
+     */
+    public static Comparator<Object> canonicalOrder() {
+        return CANONICAL_ORDER;
+    }
+
+    /**
+     * Sorts the given number of locks in the given array, starting at the given offset, into the order defined by
+     * {@link #canonicalOrder()}. Callers which acquire the same group of locks repeatedly can sort them once, and then
+     * use the allocation-free array variants of the methods in this class to acquire them.
+     *
+     * @param locks An array containing the locks to sort
+     * @param offset The index of the first lock to sort
+     * @param length The number of locks to sort
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void sortCanonically(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        Arrays.sort(locks, offset, offset + length, CANONICAL_ORDER);
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#lock()} on all locks provided by the given iterable, in the order
+     * defined by {@link #canonicalOrder()} rather than the order provided by the iterable, with the same roll back
+     * logic as {@link #lockAll(Iterable)}.
+     *
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void lockAllInCanonicalOrder(Iterable<L> locks) {
+        Lock[] array = toArray(locks);
+        sortCanonically(array, 0, array.length);
+        lockAll(array, 0, array.length);
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#lockInterruptibly()} on all locks provided by the given iterable,
+     * in the order defined by {@link #canonicalOrder()} rather than the order provided by the iterable, with the same
+     * roll back logic as {@link #lockInterruptiblyAll(Iterable)}.
+     *
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> void lockInterruptiblyAllInCanonicalOrder(Iterable<L> locks) throws InterruptedException {
+        Lock[] array = toArray(locks);
+        sortCanonically(array, 0, array.length);
+        lockInterruptiblyAll(array, 0, array.length);
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#tryLock(long, TimeUnit)} on all locks provided by the given
+     * iterable, in the order defined by {@link #canonicalOrder()} rather than the order provided by the iterable,
+     * with the same roll back logic as {@link #tryLockAll(long, TimeUnit, Iterable)}.
+     *
+     * @param time the maximum time to wait for all locks combined
+     * @param unit the time unit of the {@code time} argument
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     * @return True if at least one lock was supplied and all supplied locks were acquired successfully, otherwise false
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> boolean tryLockAllInCanonicalOrder(long time, TimeUnit unit, Iterable<L> locks) throws InterruptedException {
+        Lock[] array = toArray(locks);
+        sortCanonically(array, 0, array.length);
+        return tryLockAll(time, unit, array, 0, array.length);
+    }
+
+    static final Comparator<Object> CANONICAL_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+            if (o1 == o2) {
+                return 0;
+            }
+            int hash1 = System.identityHashCode(o1), hash2 = System.identityHashCode(o2);
+            if (hash1 != hash2) {
+                return hash1 < hash2 ? -1 : 1;
+            }
+            return compareTied(hash1, o1, o2);
+        }
+    };
+
+    // For identity hash codes shared by more than one object, the objects in the order they were first compared...
+    static final ConcurrentMap<Integer, List<TiedReference>> TIED_OBJECTS = new ConcurrentHashMap<Integer, List<TiedReference>>();
+    // References to tied objects which have been garbage collected, to be removed from TIED_OBJECTS...
+    static final ReferenceQueue<Object> COLLECTED_TIED_OBJECTS = new ReferenceQueue<Object>();
+
+    /**
+     * A weak reference to an object in {@link #TIED_OBJECTS}, which records the identity hash code of the object so
+     * that the reference can be removed once the object has been garbage collected.
+     */
+    static final class TiedReference extends WeakReference<Object> {
+        final int hash;
+
+        TiedReference(int hash, Object referent) {
+            super(referent, COLLECTED_TIED_OBJECTS);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Compares two distinct objects which have the same identity hash code, by their positions in the list of objects
+     * having that hash code, adding them to the end of the list if not already present. Objects which have been
+     * garbage collected are removed from their lists, which preserves the relative order of the remaining objects,
+     * and a list which becomes empty is removed. Comparisons of objects having different hash codes do not contend.
+     */
+    static int compareTied(int hash, Object o1, Object o2) {
+        removeCollectedTiedObjects();
+        for (;;) {
+            List<TiedReference> tied = TIED_OBJECTS.get(hash);
+            if (tied == null) {
+                tied = new ArrayList<TiedReference>();
+                List<TiedReference> existing = TIED_OBJECTS.putIfAbsent(hash, tied);
+                if (existing != null) {
+                    tied = existing;
+                }
+            }
+            synchronized (tied) {
+                if (TIED_OBJECTS.get(hash) != tied) {
+                    // The list was removed as empty after it was looked up, retry with its replacement...
+                    continue;
+                }
+                int index1 = -1, index2 = -1;
+                for (int i = 0; i < tied.size(); i++) {
+                    Object object = tied.get(i).get();
+                    if (object == o1) {
+                        index1 = i;
+                    }
+                    else if (object == o2) {
+                        index2 = i;
+                    }
+                }
+                if (index1 < 0) {
+                    index1 = tied.size();
+                    tied.add(new TiedReference(hash, o1));
+                }
+                if (index2 < 0) {
+                    index2 = tied.size();
+                    tied.add(new TiedReference(hash, o2));
+                }
+                return index1 < index2 ? -1 : 1;
+            }
+        }
+    }
+
+    /**
+     * Removes references to tied objects which have been garbage collected from their lists, and removes lists which
+     * become empty from {@link #TIED_OBJECTS}.
+     */
+    static void removeCollectedTiedObjects() {
+        for (Reference<?> reference; (reference = COLLECTED_TIED_OBJECTS.poll()) != null; ) {
+            int hash = ((TiedReference) reference).hash;
+            List<TiedReference> tied = TIED_OBJECTS.get(hash);
+            if (tied == null) {
+                continue;
+            }
+            synchronized (tied) {
+                tied.remove(reference);
+                if (tied.isEmpty()) {
+                    TIED_OBJECTS.remove(hash, tied);
+                }
+            }
+        }
+    }
+
+    // ***************************
+    // *** Backoff variants... ***
+    // ***************************
+
+    /**
+     * Acquires all locks provided by the given iterable, in any order, without holding any lock while blocking on
+     * another. Copies the locks into an array and delegates to {@link #lockAllWithBackoff(Lock[], int, int)}.
+     *
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     * @see #lockAllWithBackoff(Lock[], int, int)
+     */
+    public static <L extends Lock> void lockAllWithBackoff(Iterable<L> locks) {
+        Lock[] array = toArray(locks);
+        lockAllWithBackoff(array, 0, array.length);
+    }
+
+    /**
+     * Acquires all locks provided by the given iterable, in any order, without holding any lock while blocking on
+     * another. Copies the locks into an array and delegates to
+     * {@link #lockInterruptiblyAllWithBackoff(Lock[], int, int)}.
+     *
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     * @see #lockInterruptiblyAllWithBackoff(Lock[], int, int)
+     */
+    public static <L extends Lock> void lockInterruptiblyAllWithBackoff(Iterable<L> locks) throws InterruptedException {
+        Lock[] array = toArray(locks);
+        lockInterruptiblyAllWithBackoff(array, 0, array.length);
+    }
+
+    /**
+     * Acquires all locks provided by the given iterable, in any order, without holding any lock while blocking on
+     * another, within the given timeout. Copies the locks into an array and delegates to
+     * {@link #tryLockAllWithBackoff(long, TimeUnit, Lock[], int, int)}.
+     *
+     * @param time the maximum time to wait for all locks combined
+     * @param unit the time unit of the {@code time} argument
+     * @param locks The locks to acquire
+     * @param <L> Type of the lock
+     * @return True if at least one lock was supplied and all supplied locks were acquired successfully, otherwise false
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     * @see #tryLockAllWithBackoff(long, TimeUnit, Lock[], int, int)
+     */
+    public static <L extends Lock> boolean tryLockAllWithBackoff(long time, TimeUnit unit, Iterable<L> locks) throws InterruptedException {
+        Lock[] array = toArray(locks);
+        return tryLockAllWithBackoff(time, unit, array, 0, array.length);
+    }
+
+    /**
+     * Acquires the given number of locks in the given array, starting at the given offset, without ever blocking on
+     * one lock while holding another. Unlike {@link #lockAll(Lock[], int, int)}, this method cannot deadlock with
+     * other threads acquiring overlapping groups of locks via this method in a different order.
+     * <p/>
+     * Blocks by calling {@link java.util.concurrent.locks.Lock#lock()} on the first lock, and then calls
+     * {@link java.util.concurrent.locks.Lock#tryLock()} on each of the remaining locks. If any of them is not
+     * available, releases all locks acquired (in reverse order), backs off for a random period which grows with the
+     * number of failed attempts, and then retries by blocking on the lock which was not available, followed by calling
+     * {@link java.util.concurrent.locks.Lock#tryLock()} on the other locks in order from there. Automatically
+     * releases any locks acquired (in reverse order) if an exception is thrown, before re-throwing the exception.
+     * <p/>
+     * The locks are acquired in no particular order, and so should be released via
+     * {@link #unlockAll(Lock[], int, int)} rather than assuming any order.
+     *
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     */
+    public static <L extends Lock> void lockAllWithBackoff(L[] locks, int offset, int length) {
+        checkRange(locks, offset, length);
+        int next = offset;
+        for (int attempt = 0; length > 0; attempt++) {
+            locks[next].lock();
+            int contended = tryLockOthers(locks, offset, length, next);
+            if (contended < 0) {
+                return;
+            }
+            backOff(attempt, Long.MAX_VALUE);
+            next = contended;
+        }
+    }
+
+    /**
+     * As {@link #lockAllWithBackoff(Lock[], int, int)}, but blocks by calling
+     * {@link java.util.concurrent.locks.Lock#lockInterruptibly()}. Holds no locks when the thread is interrupted
+     * while waiting for a lock.
+     *
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> void lockInterruptiblyAllWithBackoff(L[] locks, int offset, int length) throws InterruptedException {
+        checkRange(locks, offset, length);
+        int next = offset;
+        for (int attempt = 0; length > 0; attempt++) {
+            locks[next].lockInterruptibly();
+            int contended = tryLockOthers(locks, offset, length, next);
+            if (contended < 0) {
+                return;
+            }
+            backOff(attempt, Long.MAX_VALUE);
+            next = contended;
+        }
+    }
+
+    /**
+     * As {@link #lockAllWithBackoff(Lock[], int, int)}, but blocks by calling
+     * {@link java.util.concurrent.locks.Lock#tryLock(long, TimeUnit)} with the time remaining within the timeout
+     * given, which is applied across all attempts. Holds no locks if it returns false, or if the thread is
+     * interrupted while waiting for a lock.
+     *
+     * @param time the maximum time to wait for all locks combined
+     * @param unit the time unit of the {@code time} argument
+     * @param locks An array containing the locks to acquire
+     * @param offset The index of the first lock to acquire
+     * @param length The number of locks to acquire
+     * @param <L> Type of the lock
+     * @return True if at least one lock was supplied and all supplied locks were acquired successfully, otherwise false
+     * @throws InterruptedException If the thread is interrupted while waiting for a lock
+     */
+    public static <L extends Lock> boolean tryLockAllWithBackoff(long time, TimeUnit unit, L[] locks, int offset, int length) throws InterruptedException {
+        checkRange(locks, offset, length);
+        if (length == 0) {
+            return false;
+        }
+        long deadlineNanos = System.nanoTime() + unit.toNanos(time);
+        int next = offset;
+        for (int attempt = 0; ; attempt++) {
+            // If remaining time is <= 0, locks should treat it as a non-blocking tryLock()...
+            if (!locks[next].tryLock(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            int contended = tryLockOthers(locks, offset, length, next);
+            if (contended < 0) {
+                return true;
+            }
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0L) {
+                return false;
+            }
+            backOff(attempt, remainingNanos);
+            next = contended;
+        }
+    }
+
+    /**
+     * Calls {@link java.util.concurrent.locks.Lock#tryLock()} on the locks in the given range other than the one at
+     * the given index, which must already be held, in order of index starting after it and wrapping around. If any
+     * lock is not available, or if an exception is thrown, releases all of these locks including the one at the given
+     * index, in reverse order.
+     *
+     * @return -1 if all locks were acquired, otherwise the index of the lock which was not available
+     */
+    static <L extends Lock> int tryLockOthers(L[] locks, int offset, int length, int first) {
+        int acquired = 1;
+        try {
+            for (; acquired < length; acquired++) {
+                int index = offset + (first - offset + acquired) % length;
+                if (!locks[index].tryLock()) {
+                    unlockAllInReverseOrder(locks, offset, length, first, acquired);
+                    return index;
+                }
+            }
+            return -1;
+        }
+        catch (RuntimeException e) {
+            // Roll back: unlock the locks acquired so far...
+            unlockAllInReverseOrder(locks, offset, length, first, acquired);
+            throw e;
+        }
+    }
+
+    /**
+     * Unlocks the given number of locks in the given range, which were acquired in order of index starting at the
+     * given index and wrapping around, in the reverse of that order.
+     */
+    static <L extends Lock> void unlockAllInReverseOrder(L[] locks, int offset, int length, int first, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[offset + (first - offset + i) % length].unlock();
+        }
+    }
+
+    /**
+     * Parks the current thread for a random period, bounded by a limit which doubles with each failed attempt up to
+     * {@link #MAX_BACKOFF_NANOS}, and by the given time remaining. This prevents threads contending for the same
+     * locks from repeatedly colliding with each other in lock step.
+     */
+    static void backOff(int attempt, long remainingNanos) {
+        long limitNanos = Math.min(MIN_BACKOFF_NANOS << Math.min(attempt, MAX_BACKOFF_SHIFT), MAX_BACKOFF_NANOS);
+        LockSupport.parkNanos(Math.min(ThreadLocalRandom.current().nextLong(limitNanos) + 1L, remainingNanos));
+    }
+
+    static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1L);
+    static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+    static final int MAX_BACKOFF_SHIFT = 10;
+
+    static Lock[] toArray(Iterable<? extends Lock> locks) {
+        List<Lock> list = new ArrayList<Lock>();
+        for (Lock lock : locks) {
+            list.add(lock);
+        }
+        return list.toArray(new Lock[list.size()]);
+    }
+
+    static void checkRange(Object[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > array.length - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", array length: " + array.length);
+        }
+    }
+
     // ***************************
     // *** Varargs variants... ***
     // ***************************
@@ -192,7 +779,7 @@ public class Locks {
      */
     @SuppressWarnings({"JavaDoc"})
     public static <L extends Lock> void lockAll(L... locks) {
-        lockAll(Arrays.asList(locks));
+        lockAll(locks, 0, locks.length);
     }
 
     /**
@@ -201,7 +788,7 @@ public class Locks {
      */
     @SuppressWarnings({"JavaDoc"})
     public static <L extends Lock> void lockInterruptiblyAll(L... locks) throws InterruptedException {
-        lockInterruptiblyAll(Arrays.asList(locks));
+        lockInterruptiblyAll(locks, 0, locks.length);
     }
 
     /**
@@ -210,7 +797,7 @@ public class Locks {
      */
     @SuppressWarnings({"JavaDoc"})
     public static <L extends Lock> boolean tryLockAll(L... locks) {
-        return tryLockAll(Arrays.asList(locks));
+        return tryLockAll(locks, 0, locks.length);
     }
 
     /**
@@ -219,7 +806,7 @@ public class Locks {
      */
     @SuppressWarnings({"JavaDoc"})
     public static <L extends Lock> boolean tryLockAll(long time, TimeUnit unit, L... locks) throws InterruptedException {
-        return tryLockAll(time, unit, Arrays.asList(locks));
+        return tryLockAll(time, unit, locks, 0, locks.length);
     }
 
     /**
@@ -228,7 +815,67 @@ public class Locks {
      */
     @SuppressWarnings({"JavaDoc"})
     public static <L extends Lock> void unlockAll(L... locks) {
-        unlockAll(Arrays.asList(locks));
+        unlockAll(locks, 0, locks.length);
+    }
+
+    /**
+     * Varargs variant of {@link #lockAllInCanonicalOrder(Iterable)}
+     * @see #lockAllInCanonicalOrder(Iterable)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> void lockAllInCanonicalOrder(L... locks) {
+        L[] sorted = locks.clone();
+        sortCanonically(sorted, 0, sorted.length);
+        lockAll(sorted, 0, sorted.length);
+    }
+
+    /**
+     * Varargs variant of {@link #lockInterruptiblyAllInCanonicalOrder(Iterable)}
+     * @see #lockInterruptiblyAllInCanonicalOrder(Iterable)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> void lockInterruptiblyAllInCanonicalOrder(L... locks) throws InterruptedException {
+        L[] sorted = locks.clone();
+        sortCanonically(sorted, 0, sorted.length);
+        lockInterruptiblyAll(sorted, 0, sorted.length);
+    }
+
+    /**
+     * Varargs variant of {@link #tryLockAllInCanonicalOrder(long, java.util.concurrent.TimeUnit, Iterable)}
+     * @see #tryLockAllInCanonicalOrder(long, java.util.concurrent.TimeUnit, Iterable)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> boolean tryLockAllInCanonicalOrder(long time, TimeUnit unit, L... locks) throws InterruptedException {
+        L[] sorted = locks.clone();
+        sortCanonically(sorted, 0, sorted.length);
+        return tryLockAll(time, unit, sorted, 0, sorted.length);
+    }
+
+    /**
+     * Varargs variant of {@link #lockAllWithBackoff(Iterable)}
+     * @see #lockAllWithBackoff(Lock[], int, int)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> void lockAllWithBackoff(L... locks) {
+        lockAllWithBackoff(locks, 0, locks.length);
+    }
+
+    /**
+     * Varargs variant of {@link #lockInterruptiblyAllWithBackoff(Iterable)}
+     * @see #lockInterruptiblyAllWithBackoff(Lock[], int, int)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> void lockInterruptiblyAllWithBackoff(L... locks) throws InterruptedException {
+        lockInterruptiblyAllWithBackoff(locks, 0, locks.length);
+    }
+
+    /**
+     * Varargs variant of {@link #tryLockAllWithBackoff(long, java.util.concurrent.TimeUnit, Iterable)}
+     * @see #tryLockAllWithBackoff(long, java.util.concurrent.TimeUnit, Lock[], int, int)
+     */
+    @SuppressWarnings({"JavaDoc"})
+    public static <L extends Lock> boolean tryLockAllWithBackoff(long time, TimeUnit unit, L... locks) throws InterruptedException {
+        return tryLockAllWithBackoff(time, unit, locks, 0, locks.length);
     }
 
     /**
@@ -17,6 +17,10 @@ package com.googlecode.concurentlocks;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Extends the JDK {@link ReadWriteLock}, providing an <b>update lock</b> in addition to the read lock and the write
@@ -26,6 +30,26 @@ import java.util.concurrent.locks.ReadWriteLock;
  * {@link #readLock read lock}s held simultaneously by other reader threads. However it may also be upgraded from
  * its read-only status to a {@link #writeLock write lock}, and it may be downgraded again back to a read lock.
  * <p/>
+ * Additionally supports {@link #tryOptimisticRead optimistic reads}, which allow threads to read without acquiring
+ * any lock, and to {@link #validate validate} afterwards that no thread acquired the write lock in the meantime.
+ * As the update lock does not block readers, only an actual write can invalidate an optimistic read.
+ * <p/>
+ * Each lock can also be acquired as a {@link LockHandle}, which releases the lock when closed, for use with
+ * try-with-resources. For example, to upgrade the update lock to the write lock:
+ * <pre>
+ * try (LockHandle update = readWriteUpdateLock.acquireUpdateLock()) {
+ *     // read...
+ *     try (LockHandle write = readWriteUpdateLock.acquireWriteLock()) {
+ *         // write...
+ *     }
+ * }
+ * </pre>
+ * <p/>
+ * Alternatively the {@link #read read}, {@link #update update} and {@link #write write} methods run a function while
+ * holding the relevant lock, releasing it afterwards. As they control the whole critical section, the read and update
+ * methods first try running the function optimistically without acquiring any lock, and run it again under the lock
+ * only if a write intervened.
+ * <p/>
  * See implementation {@link ReentrantReadWriteUpdateLock} for more details.
  *
  * @author Niall Gallagher
@@ -38,4 +62,231 @@ public interface ReadWriteUpdateLock extends ReadWriteLock {
      * @return a lock which allows reading and which may also be upgraded to a lock allowing writing.
      */
     Lock updateLock();
+
+    /**
+     * Acquires the {@link #readLock read lock}, and returns a handle which releases it when closed.
+     * <p/>
+     * The default implementation returns a new handle for each acquisition.
+     *
+     * @return a handle which releases the read lock when closed
+     */
+    default LockHandle acquireReadLock() {
+        return acquire(readLock());
+    }
+
+    /**
+     * Acquires the {@link #updateLock update lock}, and returns a handle which releases it when closed.
+     * <p/>
+     * The default implementation returns a new handle for each acquisition.
+     *
+     * @return a handle which releases the update lock when closed
+     */
+    default LockHandle acquireUpdateLock() {
+        return acquire(updateLock());
+    }
+
+    /**
+     * Acquires the {@link #writeLock write lock}, upgrading the update lock if held by the current thread, and
+     * returns a handle which releases the write lock when closed.
+     * <p/>
+     * The default implementation returns a new handle for each acquisition.
+     *
+     * @return a handle which releases the write lock when closed
+     */
+    default LockHandle acquireWriteLock() {
+        return acquire(writeLock());
+    }
+
+    /**
+     * Runs the given function with read access, and returns its result. The function is first run optimistically,
+     * without acquiring any lock; if the write lock was acquired in the meantime, its result or any exception it threw
+     * is discarded and it is run again while holding the {@link #readLock read lock}.
+     * <p/>
+     * As such the function may run more than once, should not have side effects, and must tolerate reading
+     * inconsistent values, as described for {@link #tryOptimisticRead()}. If the current thread holds the update lock,
+     * the function is simply run once.
+     *
+     * <p/>
+     * The default implementation does not run the function optimistically, but runs it once while holding the read
+     * lock.
+     *
+     * @param reader the function to run
+     * @param <T> the type of the result
+     * @return the result of the function
+     */
+    default <T> T read(Supplier<? extends T> reader) {
+        Lock readLock = readLock();
+        readLock.lock();
+        try {
+            return reader.get();
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * As {@link #read(Supplier)}, but supplies the given argument to the function, which allows the function to be a
+     * non-capturing lambda or method reference, such that no function object is allocated per call.
+     *
+     * @param argument the argument to supply to the function
+     * @param reader the function to run
+     * @param <A> the type of the argument
+     * @param <T> the type of the result
+     * @return the result of the function
+     */
+    default <A, T> T read(A argument, Function<? super A, ? extends T> reader) {
+        Lock readLock = readLock();
+        readLock.lock();
+        try {
+            return reader.apply(argument);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given function with read access, allowing it to upgrade to the write lock via the given
+     * {@link Upgrader}, and returns its result. The function is first run optimistically, without acquiring any lock,
+     * until it asks to upgrade, at which point the update lock is acquired. If the write lock was acquired by another
+     * thread since the function started, the function is abandoned and run again while holding the
+     * {@link #updateLock update lock} from the start.
+     * <p/>
+     * As such the function may run more than once, must not have side effects before it upgrades, and must tolerate
+     * reading inconsistent values before it upgrades, as described for {@link #tryOptimisticRead()}. If the current
+     * thread already holds the update lock, the function is simply run once.
+     *
+     * <p/>
+     * The default implementation does not run the function optimistically, but runs it once while holding the update
+     * lock, and allocates an {@link Upgrader} for each call.
+     *
+     * @param updater the function to run
+     * @param <T> the type of the result
+     * @return the result of the function
+     */
+    default <T> T update(Function<? super Upgrader, ? extends T> updater) {
+        Lock updateLock = updateLock();
+        updateLock.lock();
+        try {
+            return updater.apply(newUpgrader());
+        }
+        finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * As {@link #update(Function)}, but supplies the given argument to the function, which allows the function to be
+     * a non-capturing lambda or method reference, such that no function object is allocated per call.
+     *
+     * @param argument the argument to supply to the function
+     * @param updater the function to run
+     * @param <A> the type of the argument
+     * @param <T> the type of the result
+     * @return the result of the function
+     */
+    default <A, T> T update(A argument, BiFunction<? super A, ? super Upgrader, ? extends T> updater) {
+        Lock updateLock = updateLock();
+        updateLock.lock();
+        try {
+            return updater.apply(argument, newUpgrader());
+        }
+        finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given function while holding the {@link #writeLock write lock}, upgrading the update lock if held by
+     * the current thread.
+     *
+     * @param writer the function to run
+     */
+    default void write(Runnable writer) {
+        Lock writeLock = writeLock();
+        writeLock.lock();
+        try {
+            writer.run();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * As {@link #write(Runnable)}, but supplies the given argument to the function, which allows the function to be
+     * a non-capturing lambda or method reference, such that no function object is allocated per call.
+     *
+     * @param argument the argument to supply to the function
+     * @param writer the function to run
+     * @param <A> the type of the argument
+     */
+    default <A> void write(A argument, Consumer<? super A> writer) {
+        Lock writeLock = writeLock();
+        writeLock.lock();
+        try {
+            writer.accept(argument);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a stamp for an optimistic read, which does not acquire any lock and does not write to shared memory.
+     * After reading, the stamp should be supplied to {@link #validate(long)}, and if the stamp is not valid, the
+     * values read should be discarded and the read retried while holding the {@link #readLock read lock}.
+     * <p/>
+     * Note that values read optimistically may be inconsistent before validation, so must not be used in ways which
+     * could fail in that case (for example by following a reference which might be null) until validated.
+     * <p/>
+     * The default implementation does not support optimistic reads, and always returns zero, so that callers always
+     * fall back to the read lock.
+     *
+     * @return a non-zero stamp, or zero if the write lock is currently held or optimistic reads are not supported
+     */
+    default long tryOptimisticRead() {
+        return 0L;
+    }
+
+    /**
+     * Returns true if the write lock has not been acquired since the given stamp was issued by
+     * {@link #tryOptimisticRead()}. Always returns false if the stamp is zero.
+     * <p/>
+     * The default implementation always returns false, as no valid stamps are issued by the default implementation
+     * of {@link #tryOptimisticRead()}.
+     *
+     * @param stamp a stamp returned by {@link #tryOptimisticRead()}
+     * @return true if the write lock has not been acquired since the stamp was issued, otherwise false
+     */
+    default boolean validate(long stamp) {
+        return false;
+    }
+
+    /**
+     * Returns an upgrader for a function run by a default implementation of {@link #update}, while holding the update
+     * lock.
+     */
+    private Upgrader newUpgrader() {
+        return new Upgrader() {
+            @Override
+            public LockHandle acquireWriteLock() {
+                return ReadWriteUpdateLock.this.acquireWriteLock();
+            }
+        };
+    }
+
+    /**
+     * Acquires the given lock, and returns a new handle which releases it when closed.
+     */
+    private static LockHandle acquire(final Lock lock) {
+        lock.lock();
+        return new LockHandle() {
+            @Override
+            public void close() {
+                lock.unlock();
+            }
+        };
+    }
 }
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A table of {@link ReentrantReadWriteUpdateLock}s, one per key, which are created when a thread first acquires a
+ * lock for a key, and discarded when no thread holds or is waiting for a lock for that key. As such the number of
+ * locks in the table is proportional to the number of keys in use at any one time, rather than to the number of keys
+ * which might be used, and unlike {@link StripedReadWriteUpdateLock}, threads accessing different keys never
+ * contend.
+ * <p/>
+ * Each lock counts the number of acquisitions by threads which hold it or are waiting for it, and the last thread to
+ * release it removes it from the table. Looking up a lock which is in use, and counting an acquisition of it, is
+ * lock-free; only creating and removing locks updates the underlying {@link ConcurrentHashMap}. Keys are compared
+ * by <tt>equals()</tt>, as in a map. Usage:
+ * <pre>
+ * ReadWriteUpdateLockTable&lt;Long&gt; rowLocks = new ReadWriteUpdateLockTable&lt;Long&gt;();
+ *
+ * try (LockHandle update = rowLocks.acquireUpdateLock(rowId)) {
+ *     Row row = readRow(rowId);
+ *     if (shouldUpdate(row)) {
+ *         try (LockHandle write = rowLocks.acquireWriteLock(rowId)) {
+ *             writeRow(generateNewVersion(row));
+ *         }
+ *     }
+ * }
+ * </pre>
+ * The locks for a key have the same semantics as those of a {@link ReentrantReadWriteUpdateLock}, including
+ * reentrancy and upgrading from the update lock to the write lock, because the same lock is used for all acquisitions
+ * of a key while any is outstanding. Conditions and optimistic reads are not supported, as the lock for a key may be
+ * discarded and replaced while a thread awaits a condition or validates a stamp.
+ *
+ * @author Niall Gallagher
+ */
+public class ReadWriteUpdateLockTable<K> {
+
+    final ConcurrentMap<K, Entry> entries = new ConcurrentHashMap<K, Entry>();
+    final ReentrantReadWriteUpdateLock.Builder builder;
+
+    /**
+     * Creates a table of locks configured with the defaults of {@link ReentrantReadWriteUpdateLock#builder()}.
+     */
+    public ReadWriteUpdateLockTable() {
+        this(ReentrantReadWriteUpdateLock.builder());
+    }
+
+    /**
+     * Creates a table of locks configured by the given builder. Any monitor configured on the builder is shared by all
+     * locks in the table. The builder must not be modified afterwards.
+     *
+     * @param builder The configuration of each lock
+     */
+    public ReadWriteUpdateLockTable(ReentrantReadWriteUpdateLock.Builder builder) {
+        if (builder == null) {
+            throw new IllegalArgumentException("Builder cannot be null");
+        }
+        this.builder = builder;
+    }
+
+    /**
+     * Returns the read lock for the given key. The lock returned is a view, which creates the underlying lock for the
+     * key if necessary each time it is acquired.
+     *
+     * @param key A key, which cannot be null
+     * @return The read lock for the key
+     */
+    public KeyLock readLock(K key) {
+        return new KeyLock(key, LockMode.READ);
+    }
+
+    /**
+     * Returns the update lock for the given key. The lock returned is a view, which creates the underlying lock for
+     * the key if necessary each time it is acquired.
+     *
+     * @param key A key, which cannot be null
+     * @return The update lock for the key
+     */
+    public KeyLock updateLock(K key) {
+        return new KeyLock(key, LockMode.UPDATE);
+    }
+
+    /**
+     * Returns the write lock for the given key. The lock returned is a view, which creates the underlying lock for the
+     * key if necessary each time it is acquired.
+     *
+     * @param key A key, which cannot be null
+     * @return The write lock for the key
+     */
+    public KeyLock writeLock(K key) {
+        return new KeyLock(key, LockMode.WRITE);
+    }
+
+    /**
+     * Acquires the read lock for the given key, as {@link ReadWriteUpdateLock#acquireReadLock()}.
+     *
+     * @param key A key, which cannot be null
+     * @return A handle which releases the read lock for the key when closed
+     */
+    public LockHandle acquireReadLock(K key) {
+        KeyLock lock = readLock(key);
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Acquires the update lock for the given key, as {@link ReadWriteUpdateLock#acquireUpdateLock()}.
+     *
+     * @param key A key, which cannot be null
+     * @return A handle which releases the update lock for the key when closed
+     */
+    public LockHandle acquireUpdateLock(K key) {
+        KeyLock lock = updateLock(key);
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Acquires the write lock for the given key, as {@link ReadWriteUpdateLock#acquireWriteLock()}.
+     *
+     * @param key A key, which cannot be null
+     * @return A handle which releases the write lock for the key when closed
+     */
+    public LockHandle acquireWriteLock(K key) {
+        KeyLock lock = writeLock(key);
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Returns the number of keys for which a lock is held or awaited. This method is designed for use in monitoring
+     * system state, not for synchronization control.
+     *
+     * @return The number of locks in the table
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the lock for the given key, creating it if necessary, and counts an acquisition of it, which must later
+     * be released via {@link #release(Object, Entry)}.
+     */
+    Entry retain(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        for (;;) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                Entry created = new Entry(builder);
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    return created;
+                }
+            }
+            if (entry.tryRetain()) {
+                return entry;
+            }
+            // The last thread to release the lock has discarded it but not yet removed it, help it...
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Releases an acquisition of the lock for the given key, and removes the lock if it was the last.
+     */
+    void release(K key, Entry entry) {
+        if (Entry.REFERENCES.decrementAndGet(entry) == 0) {
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * A lock in the table, and the number of acquisitions of it by threads which hold it or are waiting for it. Once
+     * this reaches zero, the lock is discarded and cannot be retained again.
+     */
+    static final class Entry extends ReentrantReadWriteUpdateLock {
+
+        static final AtomicIntegerFieldUpdater<Entry> REFERENCES = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "references");
+
+        volatile int references = 1;
+
+        Entry(Builder builder) {
+            super(builder);
+        }
+
+        boolean tryRetain() {
+            for (;;) {
+                int references = this.references;
+                if (references == 0) {
+                    return false;
+                }
+                if (REFERENCES.compareAndSet(this, references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        Lock lock(LockMode mode) {
+            return mode == LockMode.READ ? readLock() : (mode == LockMode.UPDATE ? updateLock() : writeLock());
+        }
+    }
+
+    /**
+     * The read, update or write lock for a key. Acquiring it retains the lock for the key in the table, and releasing
+     * it allows the lock to be removed from the table if no other thread holds or is waiting for it. Closing it as a
+     * {@link LockHandle} releases it.
+     */
+    public class KeyLock implements Lock, LockHandle {
+
+        final K key;
+        final LockMode mode;
+
+        KeyLock(K key, LockMode mode) {
+            this.key = key;
+            this.mode = mode;
+        }
+
+        @Override
+        public void lock() {
+            Entry entry = retain(key);
+            boolean acquired = false;
+            try {
+                entry.lock(mode).lock();
+                acquired = true;
+            }
+            finally {
+                if (!acquired) {
+                    release(key, entry);
+                }
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            Entry entry = retain(key);
+            boolean acquired = false;
+            try {
+                entry.lock(mode).lockInterruptibly();
+                acquired = true;
+            }
+            finally {
+                if (!acquired) {
+                    release(key, entry);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            Entry entry = retain(key);
+            boolean acquired = false;
+            try {
+                acquired = entry.lock(mode).tryLock();
+                return acquired;
+            }
+            finally {
+                if (!acquired) {
+                    release(key, entry);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            Entry entry = retain(key);
+            boolean acquired = false;
+            try {
+                acquired = entry.lock(mode).tryLock(time, unit);
+                return acquired;
+            }
+            finally {
+                if (!acquired) {
+                    release(key, entry);
+                }
+            }
+        }
+
+        @Override
+        public void unlock() {
+            // If the current thread holds the lock, the entry cannot have been removed...
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                throw new IllegalMonitorStateException("Cannot release " + mode.name().toLowerCase() + " lock for key " + key + ", as this thread does not hold it");
+            }
+            entry.lock(mode).unlock();
+            release(key, entry);
+        }
+
+        @Override
+        public void close() {
+            unlock();
+        }
+
+        /**
+         * @throws UnsupportedOperationException As the lock for a key may be discarded while a thread awaits a condition
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Locks in a lock table do not support conditions");
+        }
+    }
+}
@@ -15,8 +15,19 @@
  */
 package com.googlecode.concurentlocks;
 
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * An implementation of {@link ReadWriteUpdateLock}, extending the functionality of the JDK
@@ -58,58 +69,1888 @@ import java.util.concurrent.locks.*;
  * <h2>Lock Acquisition Paths</h2>
  * <table border="1">
  * <tr><th>Lock type</th><th>Associated Permissions</th><th>Lock acquisition paths</th><th>Lock downgrade paths</th><th>Prevented with exception *</th></tr>
- * <tr><td>Read</td><td>Read (shared)</td><td>None → Read<br/>Read → Read (reentrant)</td><td>Read → None</td><td>Read → Update<br/>Read → Write</td></tr>
- * <tr><td>Update</td><td>Read (shared)</td><td>None → Update<br/>Update → Update (reentrant)<br/>Write → Update (reentrant)</td><td>Update → None</td><td>Update → Read</td></tr>
- * <tr><td>Write</td><td>Read (exclusive)<br/>Write (exclusive)</td><td>None → Write<br/>Update → Write<br/>Write → Write (reentrant)</td><td>Write → Update<br/>Write → None</td><td>Write → Read</td></tr>
+ * <tr><td>Read</td><td>Read (shared)</td><td>None → Read<br/>Read → Read (reentrant)<br/>Read → Update ***</td><td>Read → None</td><td>Read → Update (implicit)<br/>Read → Write</td></tr>
+ * <tr><td>Update</td><td>Read (shared)</td><td>None → Update<br/>Update → Update (reentrant)<br/>Write → Update (reentrant)</td><td>Update → None<br/>Update → Read **</td><td>Update → Read (implicit)</td></tr>
+ * <tr><td>Write</td><td>Read (exclusive)<br/>Write (exclusive)</td><td>None → Write<br/>Update → Write<br/>Write → Write (reentrant)</td><td>Write → Update<br/>Write → None<br/>Write → Read **</td><td>Write → Read (implicit)</td></tr>
  * </table>
  * * An <tt>IllegalStateException</tt> will be thrown if a thread holding a regular read lock tries to acquire the
- * update or write lock, or if a thread holding the update or write lock tries to acquire a regular read lock.
- * 
+ * update or write lock, or if a thread holding the update or write lock tries to acquire a regular read lock, unless
+ * the lock is unchecked (see below). This prevents only the implicit transitions, which acquire one lock while
+ * holding the other. The conversions marked ** are the only routes from the update or write lock to the read lock, and
+ * the conversion marked *** is the only route from the read lock to the update lock.
+ * <br/>
+ * ** Only via {@link #downgradeToReadLock()}, which exchanges the update lock and the write lock for the read lock
+ * in a single step.
+ * <br/>
+ * *** Only via {@link #tryPromoteToUpdateLock()}, which exchanges the read lock for the update lock if no other thread
+ * holds the update lock, without waiting.
+ *
+ * <h2>Conditions</h2>
+ * The update lock and the write lock support {@link Condition}s. Awaiting a condition fully releases the update lock,
+ * and the write lock if held, regardless of how many times the thread acquired them, and restores both before
+ * returning. Thus a thread holding the update lock and the write lock nested within it will hold both again when it
+ * returns. Signalling a condition requires holding the lock to which it is bound. The read lock does not support
+ * conditions.
+ *
+ * <h2>Implementation</h2>
+ * All three locks are backed by a single synchronizer, whose state word encodes the number of threads holding the
+ * read lock, whether the update lock is held, and whether the write lock is held. As such the None → Write,
+ * Update → Write and Write → Update transitions are each a single atomic compare-and-set when uncontended.
+ * <p/>
+ * The state word also carries a version which is advanced every time the write lock is released, which supports
+ * {@link #tryOptimisticRead() optimistic reads}.
+ * <p/>
+ * Optionally, readers can instead register in a number of padded slots selected by hashing the reading thread,
+ * which allows read throughput to scale on machines with many cores. See
+ * {@link #ReentrantReadWriteUpdateLock(boolean)}.
+ * <p/>
+ * Threads which must wait for a lock first spin briefly, if the lock has recently been held only for periods shorter
+ * than the cost of parking and unparking a thread, and park otherwise. See {@link Builder#adaptiveSpinning(boolean)}.
+ *
+ * <h2>Fairness</h2>
+ * The order in which waiting readers and the upgrading thread are admitted is selected by a {@link ReadWritePolicy},
+ * and the order in which threads waiting for the update lock are admitted is selected independently by an
+ * {@link UpdatePolicy}. These can be configured via {@link #builder()}. By default readers which were waiting for a
+ * write to complete are admitted ahead of the next write ({@link ReadWritePolicy#FAIR}), and threads may acquire the
+ * update lock ahead of threads waiting for it ({@link UpdatePolicy#NON_FAIR}).
+ *
+ * <h2>Monitoring</h2>
+ * A {@link LockMonitor} can be configured via {@link Builder#monitor(LockMonitor)}, to be notified of the outermost
+ * acquisition and final release of each lock by each thread, including how long the thread waited and how long it
+ * held the lock. {@link LockStatistics} records these as counts and histograms per {@link LockMode}, and
+ * {@link com.googlecode.concurentlocks.jfr.JfrLockMonitor} commits JDK Flight Recorder events for slow waits and long
+ * holds. {@link ContentionSampler} attributes a sample of waits to the code which waited. Locks without a monitor pay
+ * only for checking that none is configured.
+ *
+ * <h2>Unchecked Mode</h2>
+ * By default the lock tracks how many times each thread holds the read lock, which allows the read lock to be
+ * reentrant regardless of policy, and allows acquisitions along the paths prevented above to be rejected with an
+ * exception rather than deadlock. Code which is known to use the lock correctly can avoid the cost of this, by
+ * building the lock with {@link Builder#checked(boolean) checked(false)}. An unchecked lock does not validate
+ * acquisitions, and its read lock registers each acquisition directly, without looking up a per-thread hold count.
+ * <p/>
+ * As a consequence, the read lock of an unchecked lock is not reentrant, unless the {@link ReadWritePolicy} is
+ * {@link ReadWritePolicy#NON_FAIR}: under other policies a thread acquiring the read lock again can wait for a pending
+ * upgrade, which itself waits for that thread to release the read lock. Misuse, such as acquiring the update lock
+ * while holding the read lock, or releasing the read lock without holding it, is undefined behavior. The update lock
+ * and write lock remain reentrant.
+ *
  * @author Niall Gallagher
  */
 public class ReentrantReadWriteUpdateLock implements ReadWriteUpdateLock {
 
-    final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
-    final Lock updateMutex = new ReentrantLock();
+    final Sync sync;
+    final boolean checked;
+
+    final ReadLock readLock = new ReadLock();
+    final UpdateLock updateLock = new UpdateLock();
+    final WriteLock writeLock = new WriteLock();
+
+    // Handles act on the current thread's holds, so one handle per lock serves every acquisition...
+    final LockHandle readLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            readLock.unlock();
+        }
+    };
+    final LockHandle updateLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            updateLock.unlock();
+        }
+    };
+    final LockHandle writeLockHandle = new LockHandle() {
+        @Override
+        public void close() {
+            writeLock.unlock();
+        }
+    };
+
+    // Upgrades a function which is running while holding the update lock...
+    final Upgrader lockedUpgrader = new Upgrader() {
+        @Override
+        public LockHandle acquireWriteLock() {
+            return ReentrantReadWriteUpdateLock.this.acquireWriteLock();
+        }
+    };
+
+    /**
+     * Policies for the order in which threads acquire the read lock, relative to the holder of the update lock
+     * upgrading to the write lock.
+     */
+    public enum ReadWritePolicy {
+
+        /**
+         * Readers are admitted whenever the write lock is not held, even while the holder of the update lock is
+         * waiting to upgrade to the write lock. This gives the highest read throughput, but a continuous stream of
+         * overlapping readers can delay an upgrade indefinitely.
+         */
+        NON_FAIR,
+
+        /**
+         * Once the holder of the update lock starts waiting to upgrade to the write lock, readers which were already
+         * waiting for an earlier write to complete are still admitted, but readers arriving after that are not.
+         * This approximates admitting readers and writes in the order in which they arrived.
+         */
+        FAIR,
+
+        /**
+         * Once the holder of the update lock starts waiting to upgrade to the write lock, no further readers are
+         * admitted until the write lock has been released. Upgrades cannot be delayed by readers arriving after them,
+         * but readers can be delayed indefinitely by back-to-back writes.
+         */
+        WRITER_PREFERRING,
+
+        /**
+         * Read phases and write phases alternate. When the write lock is released, the readers waiting for it start a
+         * read phase, during which all readers are admitted, and the next upgrade cannot complete until all of those
+         * readers have been admitted. Readers arriving while an upgrade is pending outside of a read phase wait for
+         * that write only. As such readers and writes are each delayed by at most one phase of the other.
+         */
+        PHASE_FAIR
+    }
+
+    /**
+     * Policies for the order in which threads acquire the update lock, including as part of acquiring the write lock
+     * without holding the update lock.
+     */
+    public enum UpdatePolicy {
+
+        /**
+         * A thread may acquire the update lock when it becomes available, ahead of threads already waiting for it.
+         * This gives the highest throughput.
+         */
+        NON_FAIR,
+
+        /**
+         * The update lock is granted to waiting threads in the order in which they started waiting. As with
+         * {@link ReentrantLock}, the untimed <tt>tryLock()</tt> method does not honor this policy.
+         */
+        FAIR
+    }
+
+    /**
+     * Configures a {@link ReentrantReadWriteUpdateLock}. All settings default to those of the no-arg constructor.
+     */
+    public static class Builder {
+
+        ReadWritePolicy readWritePolicy = ReadWritePolicy.FAIR;
+        UpdatePolicy updatePolicy = UpdatePolicy.NON_FAIR;
+        boolean scalableReads = false;
+        boolean adaptiveSpinning = Runtime.getRuntime().availableProcessors() > 1;
+        LockMonitor monitor = null;
+        boolean checked = true;
+
+        Builder() {
+        }
+
+        /**
+         * @param readWritePolicy The order in which threads acquire the read lock, relative to the holder of the
+         * update lock upgrading to the write lock
+         * @return This builder
+         */
+        public Builder readWritePolicy(ReadWritePolicy readWritePolicy) {
+            if (readWritePolicy == null) {
+                throw new IllegalArgumentException("Read/write policy cannot be null");
+            }
+            this.readWritePolicy = readWritePolicy;
+            return this;
+        }
+
+        /**
+         * @param updatePolicy The order in which threads acquire the update lock
+         * @return This builder
+         */
+        public Builder updatePolicy(UpdatePolicy updatePolicy) {
+            if (updatePolicy == null) {
+                throw new IllegalArgumentException("Update policy cannot be null");
+            }
+            this.updatePolicy = updatePolicy;
+            return this;
+        }
+
+        /**
+         * @param scalableReads True to register readers in striped slots, false to register them in a shared count.
+         * See {@link ReentrantReadWriteUpdateLock#ReentrantReadWriteUpdateLock(boolean)}
+         * @return This builder
+         */
+        public Builder scalableReads(boolean scalableReads) {
+            this.scalableReads = scalableReads;
+            return this;
+        }
+
+        /**
+         * @param adaptiveSpinning True to let threads which must wait for a lock spin briefly before parking, for as
+         * long as the lock is typically held, provided that this is shorter than the cost of parking. The lock measures
+         * a sample of the times for which it is held, to decide this at runtime. False to always park immediately.
+         * Defaults to true unless there is only one processor, in which case the holder cannot run while others spin
+         * @return This builder
+         */
+        public Builder adaptiveSpinning(boolean adaptiveSpinning) {
+            this.adaptiveSpinning = adaptiveSpinning;
+            return this;
+        }
+
+        /**
+         * @param monitor A monitor to notify of acquisitions and releases of the lock, such as
+         * {@link LockStatistics}. May be called more than once, to notify a number of monitors in the order given.
+         * By default the lock is not monitored, which costs nothing
+         * @return This builder
+         */
+        public Builder monitor(LockMonitor monitor) {
+            if (monitor == null) {
+                throw new IllegalArgumentException("Monitor cannot be null");
+            }
+            this.monitor = this.monitor == null ? monitor : new MonitorChain(this.monitor, monitor);
+            return this;
+        }
+
+        /**
+         * @param checked True to track read lock holds per thread and validate acquisitions, false for an unchecked
+         * lock which does neither, for use by code already known to use the lock correctly. See
+         * <i>Unchecked Mode</i> in {@link ReentrantReadWriteUpdateLock}. An unchecked lock cannot be monitored.
+         * Defaults to true
+         * @return This builder
+         */
+        public Builder checked(boolean checked) {
+            this.checked = checked;
+            return this;
+        }
+
+        public ReentrantReadWriteUpdateLock build() {
+            return new ReentrantReadWriteUpdateLock(this);
+        }
+    }
+
+    /**
+     * Returns a builder with which to configure a new lock.
+     *
+     * @return A builder with which to configure a new lock
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a new lock, in which readers register in a single shared reader count, with the default policies.
+     */
+    public ReentrantReadWriteUpdateLock() {
+        this(false);
+    }
+
+    /**
+     * Creates a new lock, optionally in which readers register in a number of padded slots selected by hashing the
+     * reading thread, instead of in a single shared reader count.
+     * <p/>
+     * Striping readers avoids contention between reading threads on the cache line holding the shared reader count,
+     * which otherwise limits read throughput on machines with many cores. The cost is borne by the write lock: a
+     * thread upgrading to the write lock must scan all slots, and then waits for readers registered in them to drain.
+     * To avoid paying this cost repeatedly when writes are frequent, readers fall back to the shared reader count
+     * for a period after each scan proportional to the time the scan took.
+     * <p/>
+     * The semantics of the read, update and write locks are the same in both modes.
+     *
+     * @param scalableReads True to register readers in striped slots, false to register them in a shared count
+     */
+    public ReentrantReadWriteUpdateLock(boolean scalableReads) {
+        this(new Builder().scalableReads(scalableReads));
+    }
+
+    /**
+     * Creates a new lock, configured by the given builder.
+     *
+     * @param builder The configuration of the lock
+     */
+    protected ReentrantReadWriteUpdateLock(Builder builder) {
+        this(builder, false);
+    }
+
+    /**
+     * @param builder The configuration of the lock
+     * @param padded True to pad the synchronizer of the lock, which holds its state, so that the state of locks
+     * allocated together is unlikely to share a cache line; see {@link PaddedSync}
+     */
+    ReentrantReadWriteUpdateLock(Builder builder, boolean padded) {
+        if (!builder.checked && builder.monitor != null) {
+            throw new IllegalArgumentException("An unchecked lock cannot be monitored, as it does not track read lock holds");
+        }
+        this.checked = builder.checked;
+        ReaderSlots readerSlots = builder.scalableReads ? new ReaderSlots(Runtime.getRuntime().availableProcessors()) : null;
+        boolean fairUpdates = builder.updatePolicy == UpdatePolicy.FAIR;
+        this.sync = padded
+                ? new PaddedSync(readerSlots, builder.readWritePolicy, fairUpdates, builder.adaptiveSpinning, this, builder.monitor)
+                : new Sync(readerSlots, builder.readWritePolicy, fairUpdates, builder.adaptiveSpinning, this, builder.monitor);
+    }
+
+    @Override
+    public Lock updateLock() {
+        return updateLock;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the read lock.
+     */
+    @Override
+    public LockHandle acquireReadLock() {
+        readLock.lock();
+        return readLockHandle;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the update lock.
+     */
+    @Override
+    public LockHandle acquireUpdateLock() {
+        updateLock.lock();
+        return updateLockHandle;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The same handle is returned for every acquisition of the write lock.
+     */
+    @Override
+    public LockHandle acquireWriteLock() {
+        writeLock.lock();
+        return writeLockHandle;
+    }
+
+    /**
+     * Atomically exchanges the update lock held by the current thread, and the write lock if also held, for the read
+     * lock. No other thread can acquire the write lock in between, but the update lock becomes available to other
+     * threads immediately, and if the write lock was held, other readers are admitted immediately.
+     * <p/>
+     * All holds of the update lock and the write lock by the current thread are released, regardless of how many
+     * times it acquired them, and the current thread then holds the read lock once, which it must release via
+     * {@link #readLock()} as normal.
+     *
+     * @throws IllegalMonitorStateException If the current thread does not hold the update lock
+     */
+    public void downgradeToReadLock() {
+        if (!sync.isUpdateHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("Cannot downgrade to read lock, as this thread does not hold the update lock");
+        }
+        sync.downgradeToRead();
+        if (checked) {
+            HoldCountLock.HoldCount holdCount = readLock.holdCount();
+            holdCount.value = 1;
+            readLock.holdStarted(holdCount);
+            sync.acquired(LockMode.READ);
+        }
+    }
+
+    /**
+     * Exchanges the read lock held by the current thread for the update lock, if no other thread holds the update
+     * lock, otherwise returns false immediately and the current thread continues to hold the read lock. No other
+     * thread can acquire the write lock in between, so data read by the current thread remains valid. Like
+     * <tt>tryLock()</tt> of the update lock, this does not honor a fair {@link UpdatePolicy}.
+     * <p/>
+     * If successful, all holds of the read lock by the current thread are released, regardless of how many times it
+     * acquired it, and the current thread then holds the update lock once, which it must release via
+     * {@link #updateLock()} as normal.
+     *
+     * @return True if the current thread now holds the update lock instead of the read lock, false if it still holds
+     * the read lock
+     * @throws IllegalMonitorStateException If the current thread does not hold the read lock
+     */
+    public boolean tryPromoteToUpdateLock() {
+        if (checked && !readLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("Cannot promote to update lock, as this thread does not hold the read lock");
+        }
+        if (!sync.tryAcquireUpdate(true)) {
+            return false;
+        }
+        if (!checked) {
+            sync.releaseRead();
+            return true;
+        }
+        sync.acquired(LockMode.UPDATE);
+        // Holding the update lock excludes writers, so the read lock can now be released...
+        HoldCountLock.HoldCount holdCount = readLock.holdCount();
+        long heldNanos = readLock.holdStopped(holdCount);
+        HoldCountLock.releaseHoldCount(holdCount);
+        sync.releaseRead();
+        sync.released(LockMode.READ, heldNanos);
+        return true;
+    }
+
+    @Override
+    public long tryOptimisticRead() {
+        return sync.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return sync.validate(stamp);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(Supplier<? extends T> reader) {
+        return (T) read(reader, GET);
+    }
+
+    @Override
+    public <A, T> T read(A argument, Function<? super A, ? extends T> reader) {
+        if (!sync.isUpdateHeldByCurrentThread()) {
+            long stamp = sync.tryOptimisticRead();
+            if (stamp != 0L) {
+                try {
+                    T result = reader.apply(argument);
+                    if (sync.validate(stamp)) {
+                        return result;
+                    }
+                }
+                catch (RuntimeException e) {
+                    // The exception may have been caused by reading inconsistent values, if so retry under the lock...
+                    if (sync.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            readLock.lock();
+            try {
+                return reader.apply(argument);
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+        // The update lock already excludes writers...
+        return reader.apply(argument);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * An {@link Upgrader} is allocated for each call which runs the function optimistically.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T update(Function<? super Upgrader, ? extends T> updater) {
+        return (T) update(updater, APPLY);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * An {@link Upgrader} is allocated for each call which runs the function optimistically.
+     */
+    @Override
+    public <A, T> T update(A argument, BiFunction<? super A, ? super Upgrader, ? extends T> updater) {
+        if (sync.isUpdateHeldByCurrentThread()) {
+            return updater.apply(argument, lockedUpgrader);
+        }
+        long stamp = sync.tryOptimisticRead();
+        if (stamp != 0L) {
+            OptimisticUpgrader upgrader = new OptimisticUpgrader(stamp);
+            try {
+                T result = updater.apply(argument, upgrader);
+                // If the function upgraded, the stamp was validated while holding the update lock; if validation
+                // failed, retry under the lock even if the function caught the failure and returned regardless...
+                if (!upgrader.failed && (upgrader.updateHeld || sync.validate(stamp))) {
+                    return result;
+                }
+            }
+            catch (OptimisticUpdateFailure e) {
+                // A write intervened before the function upgraded, retry under the lock...
+            }
+            catch (RuntimeException e) {
+                if (!upgrader.failed && (upgrader.updateHeld || sync.validate(stamp))) {
+                    throw e;
+                }
+            }
+            finally {
+                if (upgrader.updateHeld) {
+                    updateLock.unlock();
+                }
+            }
+        }
+        updateLock.lock();
+        try {
+            return updater.apply(argument, lockedUpgrader);
+        }
+        finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(Runnable writer) {
+        write(writer, RUN);
+    }
+
+    @Override
+    public <A> void write(A argument, Consumer<? super A> writer) {
+        writeLock.lock();
+        try {
+            writer.accept(argument);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    // *** Introspection... ***
+
+    /**
+     * Returns the number of threads holding the read lock. Unlike the JDK <tt>ReentrantReadWriteLock</tt>, reentrant
+     * holds by the same thread are counted once, as they are not tracked across threads. This method is designed for
+     * use in monitoring system state, not for synchronization control, and only reads shared state.
+     * <p/>
+     * If the lock is {@link Builder#checked(boolean) unchecked}, read holds are not tracked per thread, so this instead
+     * returns the number of outstanding acquisitions of the read lock across all threads: a thread which acquired the
+     * read lock twice is counted twice.
+     *
+     * @return the number of threads holding the read lock, or if the lock is unchecked, the number of outstanding
+     * acquisitions of the read lock
+     */
+    public int getReadLockCount() {
+        return sync.getReaderCount();
+    }
+
+    /**
+     * Returns the number of reentrant holds of the read lock by the current thread.
+     *
+     * @return the number of holds of the read lock by the current thread, or zero if it does not hold the read lock
+     * @throws UnsupportedOperationException If the lock is unchecked, and so does not track read lock holds
+     */
+    public int getReadHoldCount() {
+        if (!checked) {
+            throw new UnsupportedOperationException("An unchecked lock does not track read lock holds");
+        }
+        return readLock.getHoldCount();
+    }
+
+    /**
+     * Returns true if any thread holds the update lock, including as part of holding the write lock. This method is
+     * designed for use in monitoring system state, not for synchronization control.
+     *
+     * @return true if any thread holds the update lock
+     */
+    public boolean isUpdateLocked() {
+        return sync.isUpdateHeld();
+    }
+
+    /**
+     * @return true if the current thread holds the update lock, including as part of holding the write lock
+     */
+    public boolean isUpdateLockedByCurrentThread() {
+        return sync.isUpdateHeldByCurrentThread();
+    }
+
+    /**
+     * Returns the number of reentrant holds of the update lock by the current thread. Each acquisition of the write
+     * lock also acquires the update lock once, until the write lock is released.
+     *
+     * @return the number of holds of the update lock by the current thread, or zero if it does not hold it
+     */
+    public int getUpdateHoldCount() {
+        return sync.isUpdateHeldByCurrentThread() ? sync.updateHolds.value : 0;
+    }
+
+    /**
+     * Returns the thread which holds the update lock, or null if it is not held. As the owner is recorded without a
+     * memory barrier, the result is a best-effort estimate when called by a thread other than the owner. This method
+     * is designed for use in monitoring system state, such as by subclasses providing more extensive monitoring.
+     *
+     * @return the thread which holds the update lock, or null if it is not held
+     */
+    protected Thread getUpdateOwner() {
+        return isUpdateLocked() ? sync.updateOwner : null;
+    }
+
+    /**
+     * Returns true if any thread holds the write lock. This method is designed for use in monitoring system state,
+     * not for synchronization control.
+     *
+     * @return true if any thread holds the write lock
+     */
+    public boolean isWriteLocked() {
+        return sync.isWriteHeld();
+    }
+
+    /**
+     * @return true if the current thread holds the write lock
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return getWriteHoldCount() > 0;
+    }
+
+    /**
+     * @return the number of reentrant holds of the write lock by the current thread, or zero if it does not hold it
+     */
+    public int getWriteHoldCount() {
+        return sync.isUpdateHeldByCurrentThread() ? sync.writeHolds.value : 0;
+    }
+
+    /**
+     * Returns true if the holder of the update lock is waiting for readers to release the read lock, so that it can
+     * upgrade to the write lock. This method is designed for use in monitoring system state, not for synchronization
+     * control.
+     *
+     * @return true if the holder of the update lock is waiting to upgrade to the write lock
+     */
+    public boolean isUpgradePending() {
+        return sync.upgrader != null;
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire the read lock. This method is designed for use
+     * in monitoring system state, not for synchronization control.
+     *
+     * @return the estimated number of threads waiting to acquire the read lock
+     */
+    public int getQueuedReaderCount() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire the update lock, including threads acquiring
+     * the write lock without holding the update lock, which acquire the update lock first. Threads awaiting
+     * conditions are not included. This method is designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @return the estimated number of threads waiting to acquire the update lock
+     */
+    public int getQueuedUpdaterCount() {
+        return sync.updateQueue.getQueueLength();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire any of the three locks: the queued readers,
+     * the queued updaters, and the holder of the update lock if it is waiting to upgrade to the write lock.
+     *
+     * @return the estimated number of threads waiting to acquire any lock
+     */
+    public int getQueueLength() {
+        return getQueuedReaderCount() + getQueuedUpdaterCount() + (isUpgradePending() ? 1 : 0);
+    }
+
+    /**
+     * Returns true if any threads may be waiting to acquire any of the three locks. As waiting threads may stop
+     * waiting at any time, a true result does not guarantee that any thread will acquire a lock.
+     *
+     * @return true if there may be other threads waiting to acquire any lock
+     */
+    public boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads() || sync.updateQueue.hasQueuedThreads() || isUpgradePending();
+    }
+
+    /**
+     * Returns true if the given thread may be waiting to acquire any of the three locks.
+     *
+     * @param thread the thread
+     * @return true if the given thread may be waiting to acquire any lock
+     */
+    public boolean hasQueuedThread(Thread thread) {
+        return sync.isQueued(thread) || sync.updateQueue.isQueued(thread) || sync.upgrader == thread;
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock state. The state, in brackets, includes the
+     * number of threads holding the read lock, the holder of the update lock if any, whether the write lock is held,
+     * and the number of waiting threads.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    @Override
+    public String toString() {
+        Thread updateOwner = getUpdateOwner();
+        return super.toString()
+                + "[Read locks = " + getReadLockCount()
+                + ", Update lock = " + (updateOwner == null ? "unlocked" : "locked by thread " + updateOwner.getName())
+                + ", Write lock = " + (isWriteLocked() ? "locked" : "unlocked")
+                + ", Queue length = " + getQueueLength() + "]";
+    }
+
+    // Non-capturing adapters, which let the single-argument forms delegate without allocating...
+    static final Function<Supplier<?>, Object> GET = new Function<Supplier<?>, Object>() {
+        @Override
+        public Object apply(Supplier<?> supplier) {
+            return supplier.get();
+        }
+    };
+    static final BiFunction<Function<? super Upgrader, ?>, Upgrader, Object> APPLY = new BiFunction<Function<? super Upgrader, ?>, Upgrader, Object>() {
+        @Override
+        public Object apply(Function<? super Upgrader, ?> function, Upgrader upgrader) {
+            return function.apply(upgrader);
+        }
+    };
+    static final Consumer<Runnable> RUN = new Consumer<Runnable>() {
+        @Override
+        public void accept(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /**
+     * Thrown by an {@link OptimisticUpgrader} to abandon a function which read values that a write has since
+     * invalidated. Preallocated and without a stack trace, as it is used for control flow only.
+     */
+    static final class OptimisticUpdateFailure extends RuntimeException {
+        private static final long serialVersionUID = -2961373432453102736L;
+        static final OptimisticUpdateFailure INSTANCE = new OptimisticUpdateFailure();
+
+        OptimisticUpdateFailure() {
+            super("Optimistic update was invalidated by a write", null, false, false);
+        }
+    }
+
+    /**
+     * Upgrades a function which is running optimistically, by acquiring the update lock and then validating that no
+     * write has occurred since the function started, before acquiring the write lock.
+     */
+    class OptimisticUpgrader implements Upgrader {
+        final long stamp;
+        boolean updateHeld;
+        // Set if validation failed; the function's result is then discarded whether or not it caught the failure...
+        boolean failed;
+
+        OptimisticUpgrader(long stamp) {
+            this.stamp = stamp;
+        }
+
+        @Override
+        public LockHandle acquireWriteLock() {
+            if (failed) {
+                throw OptimisticUpdateFailure.INSTANCE;
+            }
+            if (!updateHeld) {
+                updateLock.lock();
+                updateHeld = true;
+                if (!sync.validate(stamp)) {
+                    failed = true;
+                    throw OptimisticUpdateFailure.INSTANCE;
+                }
+            }
+            return ReentrantReadWriteUpdateLock.this.acquireWriteLock();
+        }
+    }
+
+    /**
+     * Notifies two monitors in turn, allowing a lock to be configured with any number of monitors.
+     */
+    static final class MonitorChain implements LockMonitor {
+        final LockMonitor first, second;
+
+        MonitorChain(LockMonitor first, LockMonitor second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void acquired(Object lock, LockMode mode, long waitNanos, Thread owner) {
+            first.acquired(lock, mode, waitNanos, owner);
+            second.acquired(lock, mode, waitNanos, owner);
+        }
+
+        @Override
+        public void timedOut(Object lock, LockMode mode, long waitNanos, Thread owner) {
+            first.timedOut(lock, mode, waitNanos, owner);
+            second.timedOut(lock, mode, waitNanos, owner);
+        }
+
+        @Override
+        public void released(Object lock, LockMode mode, long holdNanos) {
+            first.released(lock, mode, holdNanos);
+            second.released(lock, mode, holdNanos);
+        }
+    }
+
+    /**
+     * The synchronizer backing all three locks. The state word encodes the number of threads holding the read lock,
+     * whether the update lock is held, whether the write lock is held, and whether the holder of the update lock is
+     * waiting for readers to drain so that it can upgrade to the write lock. While an upgrade is pending, threads
+     * which do not already hold the read lock can acquire it only as permitted by the {@link ReadWritePolicy}.
+     * <p/>
+     * Under the {@link ReadWritePolicy#FAIR} policy, a queued reader passes a ticket holding the write version at the
+     * time it started waiting, and may bypass a pending upgrade once that version has been advanced. Under the
+     * {@link ReadWritePolicy#PHASE_FAIR} policy, releasing the write lock while readers are queued sets the read phase
+     * bit, which admits readers despite a pending upgrade. The upgrading thread clears it once no readers remain
+     * queued, and cannot complete the upgrade until then.
+     * <p/>
+     * Threads waiting for the read lock are queued in this synchronizer in shared mode. Threads waiting for the
+     * update lock are queued separately in the {@link UpdateQueue}, so that they can never hold up queued readers.
+     * Only the holder of the update lock can wait to upgrade to the write lock, so that thread parks by itself and
+     * is unparked by the last reader to release the read lock.
+     * <p/>
+     * Before queueing or parking, threads may spin for a budget given by a {@link HoldTimer}: readers according to
+     * how long the write lock is typically held, updaters according to how long the update lock is typically held,
+     * and the upgrading thread according to how long readers typically take to drain.
+     * <p/>
+     * The reader count tracks threads rather than holds: reentrant read holds are counted by the {@link ReadLock}
+     * alone. The update lock holder and its update and write hold counts are only written by the holding thread.
+     * <p/>
+     * The upper 32 bits of the state word hold the write version, which is advanced in the same compare-and-set which
+     * releases the write lock. Optimistic read stamps are the write version, with the lowest bit set so that a valid
+     * stamp is never zero.
+     * <p/>
+     * If {@link ReaderSlots} are configured, readers first try to register in their slot, and then check that the
+     * slots are still biased towards readers and that no write is pending or held, backing out otherwise. The
+     * upgrading thread marks the write pending before it revokes the bias and scans the slots, so either it sees the
+     * reader, or the reader sees the pending write. Total readers is the reader count in the state word plus the sum
+     * of the slots, but a given reader may be deducted from either: releasing a read lock deducts from the slot of the
+     * releasing thread if that slot is non-zero, which keeps the counts balanced among threads sharing a slot.
+     */
+    static class Sync extends AbstractQueuedLongSynchronizer {
+        private static final long serialVersionUID = 7284620512781437025L;
+
+        static final long READER_MASK = (1L << 28) - 1;
+        static final long WRITE_PENDING = 1L << 28;
+        static final long UPDATE_HELD = 1L << 29;
+        static final long WRITE_HELD = 1L << 30;
+        static final long READER_PHASE = 1L << 31;
+        static final long WRITE_VERSION_UNIT = 1L << 32;
+        static final long WRITE_VERSION_MASK = -WRITE_VERSION_UNIT;
+
+        final UpdateQueue updateQueue = new UpdateQueue(this);
+        final ReaderSlots readerSlots;
+        final ReadWritePolicy readWritePolicy;
+        final boolean fairUpdates;
+
+        Thread updateOwner;
+        final HoldCountLock.HoldCount updateHolds = new HoldCountLock.HoldCount();
+        final HoldCountLock.HoldCount writeHolds = new HoldCountLock.HoldCount();
+
+        volatile Thread upgrader;
+
+        final HoldTimer writeHoldTimer, updateHoldTimer, readerDrainTimer;
+
+        final Object lock;
+        final LockMonitor monitor;
+        // Written only by the holder of the update lock, and only if monitored...
+        long updateAcquiredNanos, writeAcquiredNanos;
+
+        Sync(ReaderSlots readerSlots, ReadWritePolicy readWritePolicy, boolean fairUpdates, boolean adaptiveSpinning, Object lock, LockMonitor monitor) {
+            this.readerSlots = readerSlots;
+            this.readWritePolicy = readWritePolicy;
+            this.fairUpdates = fairUpdates;
+            this.writeHoldTimer = new HoldTimer(adaptiveSpinning);
+            this.updateHoldTimer = new HoldTimer(adaptiveSpinning);
+            this.readerDrainTimer = new HoldTimer(adaptiveSpinning);
+            this.lock = lock;
+            this.monitor = monitor;
+        }
+
+        boolean hasReaders() {
+            return (getState() & READER_MASK) != 0 || (readerSlots != null && !readerSlots.isEmpty());
+        }
+
+        /**
+         * Returns false only if there definitely are no readers, without scanning reader slots.
+         */
+        boolean mayHaveReaders() {
+            return readerSlots != null || (getState() & READER_MASK) != 0;
+        }
+
+        int getReaderCount() {
+            return (int) (getState() & READER_MASK) + (readerSlots == null ? 0 : readerSlots.sum());
+        }
+
+        boolean isUpdateHeld() {
+            return (getState() & UPDATE_HELD) != 0;
+        }
+
+        boolean isWriteHeld() {
+            return (getState() & WRITE_HELD) != 0;
+        }
+
+        boolean isPendingWrite() {
+            return (getState() & WRITE_PENDING) != 0;
+        }
+
+        boolean isUpdateHeldByCurrentThread() {
+            return updateOwner == Thread.currentThread();
+        }
+
+        // *** Monitoring... ***
+
+        /**
+         * Reports an acquisition without waiting, if it was the outermost acquisition of the given mode by the current
+         * thread.
+         */
+        void acquired(LockMode mode) {
+            if (monitor != null && isOutermost(mode)) {
+                monitor.acquired(lock, mode, 0L, null);
+            }
+        }
+
+        /**
+         * Reports an acquisition after waiting since the given time, if it was the outermost acquisition of the given
+         * mode by the current thread.
+         */
+        void acquired(LockMode mode, long waitStartNanos, Thread owner) {
+            if (monitor != null && isOutermost(mode)) {
+                monitor.acquired(lock, mode, Math.max(1L, System.nanoTime() - waitStartNanos), owner);
+            }
+        }
+
+        void timedOut(LockMode mode, long waitStartNanos, Thread owner) {
+            if (monitor != null) {
+                monitor.timedOut(lock, mode, System.nanoTime() - waitStartNanos, owner);
+            }
+        }
+
+        void released(LockMode mode, long holdNanos) {
+            if (monitor != null) {
+                monitor.released(lock, mode, holdNanos);
+            }
+        }
+
+        /**
+         * Returns the current time if monitored, for a thread about to wait, otherwise zero.
+         */
+        long waitStarted() {
+            return monitor == null ? 0L : System.nanoTime();
+        }
+
+        boolean isOutermost(LockMode mode) {
+            switch (mode) {
+                case UPDATE:
+                    return updateHolds.value == 1;
+                case WRITE:
+                case UPGRADE:
+                    return writeHolds.value == 1;
+                default:
+                    // The read lock calls the sync only for the outermost hold...
+                    return true;
+            }
+        }
+
+        /**
+         * Returns the holder of the update lock, for a thread about to wait, or null if the current thread holds it.
+         */
+        Thread blockingOwner() {
+            Thread owner = updateOwner;
+            return owner == Thread.currentThread() ? null : owner;
+        }
+
+        /**
+         * Returns the mode of an acquisition of the write lock by the current thread which has just acquired it.
+         */
+        LockMode writeMode() {
+            return updateHolds.value > writeHolds.value ? LockMode.UPGRADE : LockMode.WRITE;
+        }
+
+        void updateHoldStarted() {
+            updateHoldTimer.started();
+            if (monitor != null) {
+                updateAcquiredNanos = System.nanoTime();
+            }
+        }
+
+        void writeHoldStarted() {
+            writeHoldTimer.started();
+            if (monitor != null) {
+                writeAcquiredNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Returns the time for which the update lock was held if monitored, which should be reported after releasing it.
+         */
+        long updateHoldStopped() {
+            updateHoldTimer.stopped();
+            return monitor == null ? 0L : System.nanoTime() - updateAcquiredNanos;
+        }
+
+        /**
+         * Returns the time for which the write lock was held if monitored, which should be reported after releasing it.
+         */
+        long writeHoldStopped() {
+            writeHoldTimer.stopped();
+            return monitor == null ? 0L : System.nanoTime() - writeAcquiredNanos;
+        }
+
+        // *** Spinning... ***
+
+        /**
+         * Called by a thread which failed to acquire the read lock, before it queues. Retries while spinning, for as
+         * long as the write lock is typically held.
+         */
+        boolean spinForRead() {
+            long spinNanos = writeHoldTimer.spinNanos();
+            if (spinNanos == 0L) {
+                return false;
+            }
+            writeHoldTimer.spins.incrementAndGet();
+            long spinDeadline = System.nanoTime() + spinNanos;
+            do {
+                Thread.onSpinWait();
+                if (tryAcquireRead()) {
+                    return true;
+                }
+            } while (spinDeadline - System.nanoTime() > 0L);
+            return false;
+        }
+
+        /**
+         * Called by a thread which failed to acquire the update lock, before it queues. Retries while spinning, for as
+         * long as the update lock is typically held.
+         */
+        boolean spinForUpdate() {
+            long spinNanos = updateHoldTimer.spinNanos();
+            if (spinNanos == 0L) {
+                return false;
+            }
+            updateHoldTimer.spins.incrementAndGet();
+            long spinDeadline = System.nanoTime() + spinNanos;
+            do {
+                Thread.onSpinWait();
+                if (tryAcquireUpdate(false)) {
+                    return true;
+                }
+            } while (spinDeadline - System.nanoTime() > 0L);
+            return false;
+        }
+
+        /**
+         * Called by the upgrading thread after marking the write pending, before it parks. Retries while spinning, for
+         * as long as readers typically take to drain.
+         */
+        boolean spinForUpgrade(boolean timed, long deadline) {
+            long spinNanos = readerDrainTimer.spinNanos();
+            if (spinNanos == 0L) {
+                return false;
+            }
+            readerDrainTimer.spins.incrementAndGet();
+            long spinDeadline = System.nanoTime() + spinNanos;
+            if (timed && deadline - spinDeadline < 0L) {
+                spinDeadline = deadline;
+            }
+            do {
+                Thread.onSpinWait();
+                if (tryUpgrade()) {
+                    return true;
+                }
+            } while (spinDeadline - System.nanoTime() > 0L);
+            return false;
+        }
+
+        // *** Optimistic read... ***
+
+        long tryOptimisticRead() {
+            long state = getState();
+            return (state & WRITE_HELD) == 0 ? (state & WRITE_VERSION_MASK) | 1L : 0L;
+        }
+
+        boolean validate(long stamp) {
+            // Prevent reads of guarded data by the caller from being reordered after the read of the state...
+            VarHandle.acquireFence();
+            long state = getState();
+            return stamp != 0L && (state & WRITE_HELD) == 0 && (state & WRITE_VERSION_MASK) == (stamp & WRITE_VERSION_MASK);
+        }
+
+        // *** Read lock... ***
+
+        /**
+         * Returns the ticket to pass when queueing for the read lock, which records the current write version.
+         */
+        long readerTicket() {
+            return (getState() & WRITE_VERSION_MASK) | 1L;
+        }
+
+        @Override
+        protected long tryAcquireShared(long ticket) {
+            return tryAcquireRead(ticket) ? 1L : -1L;
+        }
+
+        boolean tryAcquireRead() {
+            return tryAcquireRead(0L);
+        }
+
+        boolean tryAcquireRead(long ticket) {
+            ReaderSlots slots = readerSlots;
+            if (slots == null) {
+                return tryAcquireSharedRead(ticket);
+            }
+            if (slots.bias.get() == ReaderSlots.BIASED && tryAcquireReaderSlot(slots)) {
+                return true;
+            }
+            if (!tryAcquireSharedRead(ticket)) {
+                return false;
+            }
+            if (slots.bias.get() == ReaderSlots.UNBIASED && System.nanoTime() - slots.inhibitUntilNanos >= 0L) {
+                // No write is held or pending, and enough time has passed since the last revocation...
+                slots.bias.compareAndSet(ReaderSlots.UNBIASED, ReaderSlots.BIASED);
+            }
+            return true;
+        }
+
+        boolean tryAcquireReaderSlot(ReaderSlots slots) {
+            int slot = slots.slotOf(Thread.currentThread());
+            slots.counts.getAndIncrement(slot);
+            if (slots.bias.get() == ReaderSlots.BIASED && (getState() & (WRITE_HELD | WRITE_PENDING)) == 0) {
+                return true;
+            }
+            // Back out...
+            releaseReaderSlot(slots, slot);
+            return false;
+        }
+
+        void releaseReaderSlot(ReaderSlots slots, int slot) {
+            if (!slots.tryDecrement(slot)) {
+                // This thread's registration was taken by another thread sharing the slot, release theirs instead...
+                releaseShared(1L);
+            }
+            else if ((getState() & WRITE_PENDING) != 0) {
+                LockSupport.unpark(upgrader);
+            }
+        }
+
+        void releaseRead() {
+            ReaderSlots slots = readerSlots;
+            if (slots == null) {
+                releaseShared(1L);
+            }
+            else {
+                releaseReaderSlot(slots, slots.slotOf(Thread.currentThread()));
+            }
+        }
+
+        boolean tryAcquireSharedRead(long ticket) {
+            for (;;) {
+                long state = getState();
+                if ((state & WRITE_HELD) != 0 || ((state & WRITE_PENDING) != 0 && !admitWhilePending(state, ticket))) {
+                    return false;
+                }
+                if ((state & READER_MASK) == READER_MASK) {
+                    throw new Error("Maximum read lock count exceeded");
+                }
+                if (compareAndSetState(state, state + 1)) {
+                    if ((state & (WRITE_PENDING | READER_PHASE)) == (WRITE_PENDING | READER_PHASE)) {
+                        // Let the upgrading thread check if the read phase can end...
+                        LockSupport.unpark(upgrader);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns true if the {@link ReadWritePolicy} admits a reader while an upgrade is pending.
+         *
+         * @param ticket The ticket the reader passed when it queued, or zero if it is not queued
+         */
+        boolean admitWhilePending(long state, long ticket) {
+            switch (readWritePolicy) {
+                case NON_FAIR:
+                    return true;
+                case FAIR:
+                    return ticket != 0L && (ticket & WRITE_VERSION_MASK) != (state & WRITE_VERSION_MASK);
+                case PHASE_FAIR:
+                    return (state & READER_PHASE) != 0;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Subtracts the given value from the state word. Releasing the read lock (subtracting one reader) unparks the
+         * upgrading thread if it was the last reader. Clearing the write lock advances the write version, and starts a
+         * read phase if required. Clearing the write lock or a pending write returns true, which causes readers queued
+         * in this synchronizer to be released.
+         * <p/>
+         * A downgrade subtracts the bits it clears minus one, which registers the thread as a reader in the same step.
+         */
+        @Override
+        protected boolean tryReleaseShared(long releases) {
+            for (;;) {
+                long state = getState();
+                long nextState = state - releases;
+                long cleared = state & ~nextState;
+                if ((cleared & WRITE_HELD) != 0) {
+                    nextState += WRITE_VERSION_UNIT;
+                    if (readWritePolicy == ReadWritePolicy.PHASE_FAIR && hasQueuedThreads()) {
+                        nextState |= READER_PHASE;
+                    }
+                }
+                if (compareAndSetState(state, nextState)) {
+                    if ((nextState & (READER_MASK | WRITE_PENDING)) == WRITE_PENDING) {
+                        LockSupport.unpark(upgrader);
+                    }
+                    return (cleared & (WRITE_HELD | WRITE_PENDING)) != 0;
+                }
+            }
+        }
+
+        // *** Update lock... ***
+
+        /**
+         * @param barge True to acquire the update lock if available even if other threads are waiting for it and the
+         * update policy is fair
+         */
+        boolean tryAcquireUpdate(boolean barge) {
+            Thread current = Thread.currentThread();
+            if (updateOwner == current) {
+                updateHolds.value++;
+                return true;
+            }
+            if (!barge && fairUpdates && updateQueue.hasQueuedPredecessors()) {
+                return false;
+            }
+            for (;;) {
+                long state = getState();
+                if ((state & UPDATE_HELD) != 0) {
+                    return false;
+                }
+                if (compareAndSetState(state, state | UPDATE_HELD)) {
+                    updateOwner = current;
+                    updateHolds.value = 1;
+                    updateHoldStarted();
+                    return true;
+                }
+            }
+        }
+
+        void releaseUpdate() {
+            if (--updateHolds.value == 0) {
+                updateOwner = null;
+                long updateHeldNanos = updateHoldStopped();
+                releaseShared(UPDATE_HELD);
+                updateQueue.release(1);
+                released(LockMode.UPDATE, updateHeldNanos);
+            }
+        }
+
+        // *** Write lock... ***
+
+        boolean tryUpgrade() {
+            if (readerSlots == null || (getState() & WRITE_PENDING) != 0) {
+                return tryCompleteUpgrade();
+            }
+            // Readers registered in slots are only guaranteed to be visible after marking the write pending...
+            if ((getState() & READER_MASK) != 0) {
+                return false;
+            }
+            markWritePending();
+            if (tryCompleteUpgrade()) {
+                return true;
+            }
+            cancelUpgrade();
+            return false;
+        }
+
+        /**
+         * Clears the pending write after an attempt to upgrade failed, and restores the bias of the reader slots if the
+         * attempt revoked it, as otherwise readers would use the shared reader count until the next successful write.
+         */
+        void cancelUpgrade() {
+            releaseShared(WRITE_PENDING);
+            if (readerSlots != null) {
+                readerSlots.bias.compareAndSet(ReaderSlots.REVOKED, ReaderSlots.BIASED);
+            }
+        }
+
+        void markWritePending() {
+            for (;;) {
+                long state = getState();
+                if (compareAndSetState(state, state | WRITE_PENDING)) {
+                    return;
+                }
+            }
+        }
+
+        boolean tryCompleteUpgrade() {
+            if (readerSlots != null && !drainReaderSlots(readerSlots)) {
+                return false;
+            }
+            for (;;) {
+                long state = getState();
+                if ((state & READER_PHASE) != 0) {
+                    if (hasQueuedThreads()) {
+                        return false;
+                    }
+                    if ((state & READER_MASK) != 0) {
+                        // All readers queued by the last write have been admitted, stop admitting further readers...
+                        compareAndSetState(state, state & ~READER_PHASE);
+                        continue;
+                    }
+                }
+                if ((state & READER_MASK) != 0) {
+                    return false;
+                }
+                if (compareAndSetState(state, (state & ~(WRITE_PENDING | READER_PHASE)) | WRITE_HELD)) {
+                    writeHoldStarted();
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @param barge True to acquire the update lock if available even if other threads are waiting for it and the
+         * update policy is fair
+         */
+        boolean tryAcquireWrite(boolean barge) {
+            Thread current = Thread.currentThread();
+            if (updateOwner != current) {
+                // None -> Write, preserving the write version...
+                if (!barge && fairUpdates && updateQueue.hasQueuedThreads()) {
+                    return false;
+                }
+                if (readerSlots == null) {
+                    long state = getState();
+                    if ((state & ~WRITE_VERSION_MASK) == 0 && compareAndSetState(state, state | UPDATE_HELD | WRITE_HELD)) {
+                        updateOwner = current;
+                        updateHolds.value = 1;
+                        writeHolds.value = 1;
+                        updateHoldStarted();
+                        writeHoldStarted();
+                        return true;
+                    }
+                }
+                if (!tryAcquireUpdate(barge)) {
+                    return false;
+                }
+                if (!tryUpgrade()) {
+                    releaseUpdate();
+                    return false;
+                }
+                writeHolds.value = 1;
+                return true;
+            }
+            // Update -> Write, or Write -> Write (reentrant)...
+            if (writeHolds.value == 0 && !tryUpgrade()) {
+                return false;
+            }
+            updateHolds.value++;
+            writeHolds.value++;
+            return true;
+        }
+
+        /**
+         * Called after {@link #tryAcquireWrite(boolean)} failed. Waits for the update lock unless already held, and then
+         * to upgrade to the write lock.
+         */
+        void awaitWrite() {
+            if (!tryAcquireUpdate(false) && !spinForUpdate()) {
+                updateQueue.acquire(1);
+            }
+            upgradeOrRollback(false, false, 0L);
+        }
+
+        void awaitWriteInterruptibly() throws InterruptedException {
+            if (!tryAcquireUpdate(false) && !spinForUpdate()) {
+                updateQueue.acquireInterruptibly(1);
+            }
+            if (!upgradeOrRollback(true, false, 0L)) {
+                Thread.interrupted();
+                throw new InterruptedException();
+            }
+        }
+
+        boolean awaitWriteNanos(long nanosTimeout) throws InterruptedException {
+            final long deadline = System.nanoTime() + nanosTimeout;
+            if (!tryAcquireUpdate(false) && !updateQueue.tryAcquireNanos(1, nanosTimeout)) {
+                return false;
+            }
+            if (!upgradeOrRollback(true, true, deadline)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Called by a thread which has just taken a hold on the update lock as part of acquiring the write lock.
+         * Upgrades to the write lock if not already held, or releases that hold on the update lock again if the
+         * upgrade times out or is interrupted.
+         */
+        boolean upgradeOrRollback(boolean interruptible, boolean timed, long deadline) {
+            if (writeHolds.value == 0 && !awaitUpgrade(interruptible, timed, deadline)) {
+                releaseUpdate();
+                return false;
+            }
+            writeHolds.value++;
+            return true;
+        }
+
+        /**
+         * Called by the holder of the update lock to wait until all readers have released the read lock, and then
+         * acquire the write lock. Marks the upgrade as pending while waiting, to prevent further threads from
+         * acquiring the read lock.
+         *
+         * @return True if the write lock was acquired, false if the wait timed out or was interrupted (in the
+         * interruptible case), in which case the interrupt status of the thread is set
+         */
+        boolean awaitUpgrade(boolean interruptible, boolean timed, long deadline) {
+            if (tryUpgrade()) {
+                return true;
+            }
+            if (timed && deadline - System.nanoTime() <= 0L) {
+                return false;
+            }
+            Thread current = Thread.currentThread();
+            long startNanos = System.nanoTime();
+            upgrader = current;
+            markWritePending();
+            boolean upgraded = false, interrupted = false;
+            try {
+                upgraded = spinForUpgrade(timed, deadline);
+                while (!upgraded && !(upgraded = tryUpgrade())) {
+                    if (timed) {
+                        long nanosRemaining = deadline - System.nanoTime();
+                        if (nanosRemaining <= 0L) {
+                            break;
+                        }
+                        LockSupport.parkNanos(this, nanosRemaining);
+                    }
+                    else {
+                        LockSupport.park(this);
+                    }
+                    if (Thread.interrupted()) {
+                        interrupted = true;
+                        if (interruptible) {
+                            break;
+                        }
+                    }
+                }
+            }
+            finally {
+                upgrader = null;
+                if (!upgraded) {
+                    // Roll back: clear the pending write, releasing readers queued behind it...
+                    cancelUpgrade();
+                }
+                if (interrupted) {
+                    current.interrupt();
+                }
+            }
+            if (upgraded) {
+                readerDrainTimer.record(System.nanoTime() - startNanos);
+            }
+            return upgraded;
+        }
+
+        /**
+         * Releases the update lock, and the write lock if held, regardless of hold counts. The given adjustment is
+         * added to the state in the same step, which can register the current thread as a reader.
+         */
+        void releaseFully(long adjustment) {
+            boolean writeHeld = writeHolds.value > 0;
+            long writeHeldNanos = writeHeld ? writeHoldStopped() : 0L;
+            long updateHeldNanos = updateHoldStopped();
+            updateOwner = null;
+            updateHolds.value = 0;
+            writeHolds.value = 0;
+            releaseShared((writeHeld ? WRITE_HELD | UPDATE_HELD : UPDATE_HELD) + adjustment);
+            if (writeHeld) {
+                released(LockMode.WRITE, writeHeldNanos);
+            }
+            released(LockMode.UPDATE, updateHeldNanos);
+        }
+
+        /**
+         * Releases the update lock, and the write lock if held, regardless of hold counts, and registers the current
+         * thread as a reader in the same step.
+         */
+        void downgradeToRead() {
+            releaseFully(-1L);
+            updateQueue.release(1);
+        }
+
+        /**
+         * Called when the holder of the update lock starts to await a condition. Releases the update lock, and the
+         * write lock if held, regardless of hold counts, which the condition saves and restores.
+         */
+        void fullyRelease() {
+            releaseFully(0L);
+        }
+
+        /**
+         * Called when a thread returns from awaiting a condition, having reacquired the update lock. Upgrades to the
+         * write lock again if it was held, and restores the hold counts.
+         * <p/>
+         * Reports the reacquisitions to the monitor as the original acquisitions would have been reported, balancing
+         * the releases reported by {@link #fullyRelease()}. Time spent awaiting the condition is not contention for the
+         * lock, so the update lock is reported as acquired without waiting, while the write lock is reported with the
+         * time spent upgrading again.
+         */
+        void restoreHolds(int savedUpdateHolds, int savedWriteHolds) {
+            boolean writeHeld = savedWriteHolds > 0;
+            long upgradeWaitNanos = 0L;
+            if (writeHeld && (getState() & WRITE_HELD) == 0 && !tryUpgrade()) {
+                long waitStartNanos = waitStarted();
+                awaitUpgrade(false, false, 0L);
+                upgradeWaitNanos = monitor == null ? 0L : Math.max(1L, System.nanoTime() - waitStartNanos);
+            }
+            updateHolds.value = savedUpdateHolds;
+            writeHolds.value = savedWriteHolds;
+            if (monitor != null) {
+                if (savedUpdateHolds > savedWriteHolds) {
+                    monitor.acquired(lock, LockMode.UPDATE, 0L, null);
+                }
+                if (writeHeld) {
+                    monitor.acquired(lock, writeMode(), upgradeWaitNanos, null);
+                }
+            }
+        }
+
+        void releaseWrite() {
+            updateHolds.value--;
+            if (--writeHolds.value > 0) {
+                // Write -> Write (reentrant)...
+                return;
+            }
+            long writeHeldNanos = writeHoldStopped();
+            if (updateHolds.value > 0) {
+                // Write -> Update...
+                releaseShared(WRITE_HELD);
+                released(LockMode.WRITE, writeHeldNanos);
+                return;
+            }
+            // Write -> None...
+            updateOwner = null;
+            long updateHeldNanos = updateHoldStopped();
+            releaseShared(WRITE_HELD | UPDATE_HELD);
+            updateQueue.release(1);
+            released(LockMode.WRITE, writeHeldNanos);
+            released(LockMode.UPDATE, updateHeldNanos);
+        }
+    }
+
+    /**
+     * A synchronizer padded so that the next object allocated is at least 128 bytes beyond its state, as for
+     * {@link ReaderSlots}. The state word of a lock is written by every acquisition and release, and it is held by the
+     * synchronizer rather than by the lock object, so it is the synchronizer which is padded for locks allocated
+     * together, such as the stripes of a {@link StripedReadWriteUpdateLock}.
+     */
+    static final class PaddedSync extends Sync {
+        private static final long serialVersionUID = 3461873240947105512L;
+
+        long p0, p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+
+        PaddedSync(ReaderSlots readerSlots, ReadWritePolicy readWritePolicy, boolean fairUpdates, boolean adaptiveSpinning, Object lock, LockMonitor monitor) {
+            super(readerSlots, readWritePolicy, fairUpdates, adaptiveSpinning, lock, monitor);
+        }
+    }
+
+    /**
+     * Called by the upgrading thread after marking the write pending. Revokes the bias of the reader slots if biased,
+     * and returns true when all slots are empty, in which case readers are kept in the shared reader count until
+     * some time after the revocation.
+     */
+    static boolean drainReaderSlots(ReaderSlots slots) {
+        int bias = slots.bias.get();
+        if (bias == ReaderSlots.UNBIASED) {
+            return true;
+        }
+        if (bias == ReaderSlots.BIASED) {
+            slots.revokedAtNanos = System.nanoTime();
+            slots.bias.set(ReaderSlots.REVOKED);
+        }
+        if (!slots.isEmpty()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        slots.inhibitUntilNanos = now + (now - slots.revokedAtNanos) * ReaderSlots.INHIBIT_MULTIPLIER;
+        slots.bias.set(ReaderSlots.UNBIASED);
+        return true;
+    }
+
+    /**
+     * Per-thread-hashed reader counts, each on its own cache lines. The bias is {@link #BIASED} while readers may
+     * register in slots, {@link #REVOKED} after an upgrading thread has stopped readers registering but before the
+     * slots have drained, and {@link #UNBIASED} while the slots are known to be empty.
+     */
+    static final class ReaderSlots {
 
-    final ReadLock readLock = new ReadLock();
-    final UpdateLock updateLock = new UpdateLock();
-    final WriteLock writeLock = new WriteLock();
+        static final int BIASED = 0, REVOKED = 1, UNBIASED = 2;
 
-    @Override
-    public Lock updateLock() {
-        return updateLock;
+        // Readers fall back to the shared count for this multiple of the time taken to revoke the bias...
+        static final int INHIBIT_MULTIPLIER = 9;
+
+        // Separate slots by 128 bytes, to avoid false sharing including from adjacent cache line prefetch...
+        static final int SLOT_STRIDE = 32;
+        static final int MAX_SLOTS = 256;
+
+        final AtomicIntegerArray counts;
+        final int mask;
+        final AtomicInteger bias = new AtomicInteger(BIASED);
+        long revokedAtNanos;
+        volatile long inhibitUntilNanos;
+
+        ReaderSlots(int processors) {
+            int slots = Math.min(MAX_SLOTS, Integer.highestOneBit(Math.max(1, processors * 4 - 1)) << 1);
+            this.mask = slots - 1;
+            this.counts = new AtomicIntegerArray(slots * SLOT_STRIDE);
+        }
+
+        int slotOf(Thread thread) {
+            int hash = (int) ((thread.getId() * 0x9E3779B97F4A7C15L) >>> 32);
+            return (hash & mask) * SLOT_STRIDE;
+        }
+
+        boolean tryDecrement(int slot) {
+            for (;;) {
+                int count = counts.get(slot);
+                if (count == 0) {
+                    return false;
+                }
+                if (counts.compareAndSet(slot, count, count - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        int sum() {
+            int sum = 0;
+            for (int slot = 0; slot < counts.length(); slot += SLOT_STRIDE) {
+                sum += counts.get(slot);
+            }
+            return sum;
+        }
+
+        boolean isEmpty() {
+            for (int slot = 0; slot < counts.length(); slot += SLOT_STRIDE) {
+                if (counts.get(slot) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
-    @Override
-    public Lock readLock() {
-        return readLock;
+    /**
+     * Estimates how long a lock is typically held, or how long readers typically take to drain, from a moving average
+     * of sampled durations, and hence for how long a thread waiting for it should spin before parking. Spinning saves
+     * the cost of parking and unparking when holds are shorter than that, but only burns CPU when holds are longer,
+     * so threads do not spin at all while the average exceeds {@link #MAX_SPIN_NANOS}. Durations are only recorded by
+     * one thread at a time, the holder of the lock concerned, and so need no synchronization beyond that of the lock.
+     */
+    static final class HoldTimer {
+
+        // Roughly the cost of parking and unparking a thread, beyond which spinning does not pay off...
+        static final long MAX_SPIN_NANOS = 10000L;
+        static final long MIN_SPIN_NANOS = 500L;
+
+        // Time one in this many holds (a power of two), to keep calls to System.nanoTime() off most acquisitions...
+        static final int SAMPLE_INTERVAL = 8;
+
+        final boolean enabled;
+        // The number of times threads have spun for this budget, which is only read by tests...
+        final AtomicLong spins = new AtomicLong();
+        int holds;
+        long startNanos;
+        boolean sampling;
+        volatile long averageNanos;
+
+        HoldTimer(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        void started() {
+            if (enabled && (++holds & (SAMPLE_INTERVAL - 1)) == 0) {
+                startNanos = System.nanoTime();
+                sampling = true;
+            }
+        }
+
+        void stopped() {
+            if (sampling) {
+                sampling = false;
+                record(System.nanoTime() - startNanos);
+            }
+        }
+
+        void record(long nanos) {
+            long average = averageNanos;
+            averageNanos = average + ((nanos - average) >> 2);
+        }
+
+        /**
+         * Returns how long a thread waiting for the lock should spin before parking, which is zero if spinning is
+         * disabled or if holds are typically too long for spinning to pay off.
+         */
+        long spinNanos() {
+            long average = averageNanos;
+            if (!enabled || average > MAX_SPIN_NANOS) {
+                return 0L;
+            }
+            return Math.min(MAX_SPIN_NANOS, Math.max(MIN_SPIN_NANOS, average * 2));
+        }
     }
 
-    @Override
-    public Lock writeLock() {
-        return writeLock;
+    /**
+     * Queues threads waiting for the update lock. The state of this queue is not used: acquisition is delegated to
+     * the update bit of the {@link Sync} state word, and the caller clears that bit before releasing the queue.
+     * <p/>
+     * Conditions of the update and write locks are built on conditions of this queue. A thread awaiting one releases
+     * this queue while still holding the update lock, in which case the release also clears the update bit.
+     */
+    static final class UpdateQueue extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = -5839174025371802641L;
+
+        final Sync sync;
+
+        UpdateQueue(Sync sync) {
+            this.sync = sync;
+        }
+
+        @Override
+        protected boolean tryAcquire(int unused) {
+            return sync.tryAcquireUpdate(false);
+        }
+
+        @Override
+        protected boolean tryRelease(int unused) {
+            if (sync.isUpdateHeldByCurrentThread()) {
+                // Starting to await a condition...
+                sync.fullyRelease();
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return sync.isUpdateHeldByCurrentThread();
+        }
+
+        ConditionObject newCondition() {
+            return new ConditionObject();
+        }
     }
 
+    /**
+     * A lock which counts the holds of each thread. The hold counts of a thread for all locks are kept in a single
+     * array per thread, in which a hold count object belongs to a lock only while that lock is held, and is reused for
+     * other locks otherwise. So a thread allocates as many hold count objects as the number of locks it holds at the
+     * same time, rather than one for every lock it ever acquires, which matters with very large numbers of threads
+     * (such as virtual threads) and of locks.
+     */
     static abstract class HoldCountLock implements Lock {
 
-        static class HoldCount { int value; }
+        static class HoldCount {
+            int value;
+            // Weakly references the thread, to avoid retaining it and its context class loader via cachedHoldCount...
+            final WeakReference<Thread> thread = new WeakReference<Thread>(Thread.currentThread());
+            // The lock to which this hold count belongs, or null if it is free for reuse...
+            HoldCountLock lock;
+            // When the outermost hold was acquired, if the lock is monitored...
+            long acquiredNanos;
+
+            /**
+             * Returns true if this hold count belongs to the current thread. Compares the threads by identity, as a
+             * thread id is not guaranteed to be unique among threads which override {@link Thread#getId()}.
+             */
+            boolean isOwnedByCurrentThread() {
+                return thread.get() == Thread.currentThread();
+            }
+        }
+
+        static final int INITIAL_HOLD_COUNTS = 4;
 
-        final ThreadLocal<HoldCount> threadHoldCount = new ThreadLocal<HoldCount>() {
+        static final ThreadLocal<HoldCount[]> threadHoldCounts = new ThreadLocal<HoldCount[]>() {
             @Override
-            protected HoldCount initialValue() {
-                return new HoldCount();
+            protected HoldCount[] initialValue() {
+                return new HoldCount[INITIAL_HOLD_COUNTS];
             }
         };
 
+        /**
+         * The hold count of the last thread to look up its hold count, which saves a ThreadLocal lookup whenever the
+         * same thread acquires or releases the lock repeatedly. Not volatile: a thread can only ever match its own
+         * hold count here, and the reference to its thread is final, so a stale or racing value simply causes a cache
+         * miss.
+         */
+        HoldCount cachedHoldCount;
+
         final Lock backingLock;
 
         public HoldCountLock(Lock backingLock) {
             this.backingLock = backingLock;
         }
 
+        /**
+         * Returns the hold count of the current thread for this lock, assigning it a free hold count if it does not
+         * hold this lock. Callers set its value to zero via {@link #releaseHoldCount(HoldCount)}.
+         */
         HoldCount holdCount() {
-            return threadHoldCount.get();
+            HoldCount holdCount = cachedHoldCount;
+            if (holdCount == null || holdCount.lock != this || !holdCount.isOwnedByCurrentThread()) {
+                cachedHoldCount = holdCount = assignHoldCount();
+            }
+            return holdCount;
+        }
+
+        HoldCount assignHoldCount() {
+            HoldCount[] holdCounts = threadHoldCounts.get();
+            HoldCount free = null;
+            int length = 0;
+            for (HoldCount holdCount : holdCounts) {
+                if (holdCount == null) {
+                    break;
+                }
+                if (holdCount.lock == this) {
+                    return holdCount;
+                }
+                // A hold count with value zero was looked up for a lock which the thread does not hold, reuse it...
+                if (free == null && (holdCount.lock == null || holdCount.value == 0)) {
+                    free = holdCount;
+                }
+                length++;
+            }
+            if (free == null) {
+                if (length == holdCounts.length) {
+                    holdCounts = Arrays.copyOf(holdCounts, length * 2);
+                    threadHoldCounts.set(holdCounts);
+                }
+                holdCounts[length] = free = new HoldCount();
+            }
+            free.lock = this;
+            return free;
+        }
+
+        /**
+         * Sets the given hold count of the current thread for this lock to zero, and frees it for reuse.
+         */
+        static void releaseHoldCount(HoldCount holdCount) {
+            holdCount.value = 0;
+            holdCount.lock = null;
+        }
+
+        /**
+         * Returns true if the current thread holds this lock, without assigning it a hold count if not.
+         */
+        boolean isHeldByCurrentThread() {
+            return getHoldCount() > 0;
+        }
+
+        /**
+         * Returns the number of holds of this lock by the current thread, without assigning it a hold count if none.
+         */
+        int getHoldCount() {
+            HoldCount holdCount = cachedHoldCount;
+            if (holdCount != null && holdCount.lock == this && holdCount.isOwnedByCurrentThread()) {
+                return holdCount.value;
+            }
+            for (HoldCount threadHoldCount : threadHoldCounts.get()) {
+                if (threadHoldCount == null) {
+                    break;
+                }
+                if (threadHoldCount.lock == this) {
+                    return threadHoldCount.value;
+                }
+            }
+            return 0;
         }
 
         @Override
@@ -149,7 +1990,10 @@ public class ReentrantReadWriteUpdateLock implements ReadWriteUpdateLock {
         @Override
         public void unlock() {
             backingLock.unlock();
-            holdCount().value--;
+            HoldCount holdCount = holdCount();
+            if (--holdCount.value == 0) {
+                releaseHoldCount(holdCount);
+            }
         }
 
         @Override
@@ -160,27 +2004,285 @@ public class ReentrantReadWriteUpdateLock implements ReadWriteUpdateLock {
         abstract void validatePreconditions();
     }
 
+    /**
+     * Registers and deregisters the calling thread as a reader in the {@link Sync}. Used as the backing lock of the
+     * {@link ReadLock}, which calls it only for the outermost hold of each thread.
+     */
+    class SharedLock implements Lock {
+
+        @Override
+        public void lock() {
+            if (sync.tryAcquireRead()) {
+                sync.acquired(LockMode.READ);
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (!sync.spinForRead()) {
+                sync.acquireShared(sync.readerTicket());
+            }
+            sync.acquired(LockMode.READ, waitStartNanos, owner);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquireRead()) {
+                sync.acquired(LockMode.READ);
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (!sync.spinForRead()) {
+                sync.acquireSharedInterruptibly(sync.readerTicket());
+            }
+            sync.acquired(LockMode.READ, waitStartNanos, owner);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (sync.tryAcquireRead()) {
+                sync.acquired(LockMode.READ);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquireRead()) {
+                sync.acquired(LockMode.READ);
+                return true;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (sync.tryAcquireSharedNanos(sync.readerTicket(), unit.toNanos(time))) {
+                sync.acquired(LockMode.READ, waitStartNanos, owner);
+                return true;
+            }
+            sync.timedOut(LockMode.READ, waitStartNanos, owner);
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseRead();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("This lock does not support conditions");
+        }
+    }
+
     class ReadLock extends HoldCountLock {
 
         public ReadLock() {
-            super(readWriteLock.readLock());
+            super(new SharedLock());
+        }
+
+        @Override
+        public void lock() {
+            if (!checked) {
+                backingLock.lock();
+                return;
+            }
+            validatePreconditions();
+            HoldCount holdCount = holdCount();
+            if (holdCount.value == 0) {
+                backingLock.lock();
+                holdStarted(holdCount);
+            }
+            holdCount.value++;
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!checked) {
+                backingLock.lockInterruptibly();
+                return;
+            }
+            validatePreconditions();
+            HoldCount holdCount = holdCount();
+            if (holdCount.value == 0) {
+                try {
+                    backingLock.lockInterruptibly();
+                }
+                catch (InterruptedException e) {
+                    releaseHoldCount(holdCount);
+                    throw e;
+                }
+                holdStarted(holdCount);
+            }
+            holdCount.value++;
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (!checked) {
+                return backingLock.tryLock();
+            }
+            validatePreconditions();
+            HoldCount holdCount = holdCount();
+            if (holdCount.value == 0) {
+                if (!backingLock.tryLock()) {
+                    releaseHoldCount(holdCount);
+                    return false;
+                }
+                holdStarted(holdCount);
+            }
+            holdCount.value++;
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (!checked) {
+                return backingLock.tryLock(time, unit);
+            }
+            validatePreconditions();
+            HoldCount holdCount = holdCount();
+            if (holdCount.value == 0) {
+                boolean acquired = false;
+                try {
+                    acquired = backingLock.tryLock(time, unit);
+                }
+                finally {
+                    if (!acquired) {
+                        releaseHoldCount(holdCount);
+                    }
+                }
+                if (!acquired) {
+                    return false;
+                }
+                holdStarted(holdCount);
+            }
+            holdCount.value++;
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (!checked) {
+                backingLock.unlock();
+                return;
+            }
+            HoldCount holdCount = holdCount();
+            if (holdCount.value == 0) {
+                releaseHoldCount(holdCount);
+                throw new IllegalMonitorStateException("Cannot release read lock, as this thread does not hold it");
+            }
+            if (--holdCount.value == 0) {
+                long heldNanos = holdStopped(holdCount);
+                releaseHoldCount(holdCount);
+                backingLock.unlock();
+                sync.released(LockMode.READ, heldNanos);
+            }
+        }
+
+        void holdStarted(HoldCount holdCount) {
+            if (sync.monitor != null) {
+                holdCount.acquiredNanos = System.nanoTime();
+            }
+        }
+
+        long holdStopped(HoldCount holdCount) {
+            return sync.monitor == null ? 0L : System.nanoTime() - holdCount.acquiredNanos;
         }
 
         void validatePreconditions() {
-            if (updateLock.holdCount().value > 0) {
+            if (sync.isUpdateHeldByCurrentThread()) {
                 throw new IllegalStateException("Cannot acquire read lock, as this thread previously acquired and must first release the update lock");
             }
         }
     }
 
-    class UpdateLock extends HoldCountLock {
+    class UpdateLock implements Lock {
+
+        HoldCountLock.HoldCount holdCount() {
+            return sync.isUpdateHeldByCurrentThread() ? sync.updateHolds : new HoldCountLock.HoldCount();
+        }
+
+        @Override
+        public void lock() {
+            validatePreconditions();
+            if (sync.tryAcquireUpdate(false)) {
+                sync.acquired(LockMode.UPDATE);
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (!sync.spinForUpdate()) {
+                sync.updateQueue.acquire(1);
+            }
+            sync.acquired(LockMode.UPDATE, waitStartNanos, owner);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            validatePreconditions();
+            if (sync.tryAcquireUpdate(false)) {
+                sync.acquired(LockMode.UPDATE);
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (!sync.spinForUpdate()) {
+                sync.updateQueue.acquireInterruptibly(1);
+            }
+            sync.acquired(LockMode.UPDATE, waitStartNanos, owner);
+        }
+
+        @Override
+        public boolean tryLock() {
+            validatePreconditions();
+            if (sync.tryAcquireUpdate(true)) {
+                sync.acquired(LockMode.UPDATE);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            validatePreconditions();
+            if (sync.tryAcquireUpdate(false)) {
+                sync.acquired(LockMode.UPDATE);
+                return true;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            if (sync.updateQueue.tryAcquireNanos(1, unit.toNanos(time))) {
+                sync.acquired(LockMode.UPDATE, waitStartNanos, owner);
+                return true;
+            }
+            sync.timedOut(LockMode.UPDATE, waitStartNanos, owner);
+            return false;
+        }
+
+        @Override
+        public void unlock() {
+            if (!sync.isUpdateHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("Cannot release update lock, as this thread does not hold it");
+            }
+            if (sync.updateHolds.value == sync.writeHolds.value) {
+                throw new IllegalMonitorStateException("Cannot release update lock, as this thread holds it only by virtue of holding the write lock");
+            }
+            sync.releaseUpdate();
+        }
 
-        public UpdateLock() {
-            super(updateMutex);
+        @Override
+        public Condition newCondition() {
+            return new UpdateCondition(false);
         }
 
         void validatePreconditions() {
-            if (readLock.holdCount().value > 0) {
+            if (checked && sync.mayHaveReaders() && readLock.isHeldByCurrentThread()) {
                 throw new IllegalStateException("Cannot acquire update lock, as this thread previously acquired and must first release the read lock");
             }
         }
@@ -195,41 +2297,171 @@ public class ReentrantReadWriteUpdateLock implements ReadWriteUpdateLock {
             // This allow threads to go from both NONE -> WRITE and from UPDATE -> WRITE.
             // This also ensures that only the thread holding the single UPDATE lock,
             // can request the WRITE lock...
-            Locks.lockAll(updateLock, readWriteLock.writeLock());
+            if (sync.tryAcquireWrite(false)) {
+                sync.acquired(sync.writeMode());
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            sync.awaitWrite();
+            sync.acquired(sync.writeMode(), waitStartNanos, owner);
         }
 
         @Override
         public void lockInterruptibly() throws InterruptedException {
             validatePreconditions();
-            Locks.lockInterruptiblyAll(updateLock, readWriteLock.writeLock());
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquireWrite(false)) {
+                sync.acquired(sync.writeMode());
+                return;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            sync.awaitWriteInterruptibly();
+            sync.acquired(sync.writeMode(), waitStartNanos, owner);
         }
 
         @Override
         public boolean tryLock() {
             validatePreconditions();
-            return Locks.tryLockAll(updateLock, readWriteLock.writeLock());
+            if (sync.tryAcquireWrite(true)) {
+                sync.acquired(sync.writeMode());
+                return true;
+            }
+            return false;
         }
 
         @Override
         public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
             validatePreconditions();
-            return Locks.tryLockAll(time, unit, updateLock, readWriteLock.writeLock());
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (sync.tryAcquireWrite(false)) {
+                sync.acquired(sync.writeMode());
+                return true;
+            }
+            long waitStartNanos = sync.waitStarted();
+            Thread owner = sync.blockingOwner();
+            LockMode mode = sync.isUpdateHeldByCurrentThread() ? LockMode.UPGRADE : LockMode.WRITE;
+            if (sync.awaitWriteNanos(unit.toNanos(time))) {
+                sync.acquired(mode, waitStartNanos, owner);
+                return true;
+            }
+            sync.timedOut(mode, waitStartNanos, owner);
+            return false;
         }
 
         @Override
         public void unlock() {
-            Locks.unlockAll(readWriteLock.writeLock(), updateLock);
+            if (!sync.isUpdateHeldByCurrentThread() || sync.writeHolds.value == 0) {
+                throw new IllegalMonitorStateException("Cannot release write lock, as this thread does not hold it");
+            }
+            sync.releaseWrite();
         }
 
         @Override
         public Condition newCondition() {
-            throw new UnsupportedOperationException("This lock does not support conditions");
+            return new UpdateCondition(true);
         }
 
         void validatePreconditions() {
-            if (readLock.holdCount().value > 0) {
+            if (checked && sync.mayHaveReaders() && readLock.isHeldByCurrentThread()) {
                 throw new IllegalStateException("Cannot acquire write lock, as this thread previously acquired and must first release the read lock");
             }
         }
     }
+
+    /**
+     * A condition of the update lock or the write lock. See {@link UpdateQueue}.
+     */
+    class UpdateCondition implements Condition {
+
+        final Condition condition = sync.updateQueue.newCondition();
+        final boolean writeLockCondition;
+
+        UpdateCondition(boolean writeLockCondition) {
+            this.writeLockCondition = writeLockCondition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            validateHeld();
+            int updateHolds = sync.updateHolds.value, writeHolds = sync.writeHolds.value;
+            try {
+                condition.await();
+            }
+            finally {
+                sync.restoreHolds(updateHolds, writeHolds);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            validateHeld();
+            int updateHolds = sync.updateHolds.value, writeHolds = sync.writeHolds.value;
+            try {
+                condition.awaitUninterruptibly();
+            }
+            finally {
+                sync.restoreHolds(updateHolds, writeHolds);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            validateHeld();
+            int updateHolds = sync.updateHolds.value, writeHolds = sync.writeHolds.value;
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            }
+            finally {
+                sync.restoreHolds(updateHolds, writeHolds);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            validateHeld();
+            int updateHolds = sync.updateHolds.value, writeHolds = sync.writeHolds.value;
+            try {
+                return condition.await(time, unit);
+            }
+            finally {
+                sync.restoreHolds(updateHolds, writeHolds);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            validateHeld();
+            int updateHolds = sync.updateHolds.value, writeHolds = sync.writeHolds.value;
+            try {
+                return condition.awaitUntil(deadline);
+            }
+            finally {
+                sync.restoreHolds(updateHolds, writeHolds);
+            }
+        }
+
+        @Override
+        public void signal() {
+            validateHeld();
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            validateHeld();
+            condition.signalAll();
+        }
+
+        void validateHeld() {
+            if (!sync.isUpdateHeldByCurrentThread() || (writeLockCondition && sync.writeHolds.value == 0)) {
+                throw new IllegalMonitorStateException("Cannot use condition, as this thread does not hold the " + (writeLockCondition ? "write" : "update") + " lock");
+            }
+        }
+    }
 }
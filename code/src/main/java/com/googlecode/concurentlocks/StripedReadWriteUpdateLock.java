@@ -0,0 +1,225 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A fixed number of {@link ReentrantReadWriteUpdateLock}s, called stripes, to which keys are mapped by hash code,
+ * allowing threads which access different keys of a large data structure to hold update locks and write locks
+ * concurrently, instead of serializing on the single update lock of one lock guarding the whole structure.
+ * <p/>
+ * The same key always maps to the same stripe, and different keys may map to the same stripe, so holding a lock for
+ * a key can exclude threads accessing other keys, but only those which share its stripe. The number of stripes is
+ * rounded up to a power of two, and the synchronizer of each stripe, which holds its state, is padded so that the
+ * state of adjacent stripes is unlikely to share a cache line.
+ * <p/>
+ * Locks for a number of keys can be acquired together via {@link #bulkReadLock(Iterable)},
+ * {@link #bulkUpdateLock(Iterable)} and {@link #bulkWriteLock(Iterable)}, which acquire the locks of the distinct
+ * stripes of the keys in ascending order of stripe index. As all bulk acquisitions use the same order, threads
+ * acquiring locks for overlapping sets of keys cannot deadlock with each other. Usage:
+ * <pre>
+ * StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(64);
+ *
+ * try (LockHandle update = striped.get(key).acquireUpdateLock()) {
+ *     ...
+ * }
+ *
+ * Lock writeLocks = striped.bulkWriteLock(keys);
+ * writeLocks.lock();
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     writeLocks.unlock();
+ * }
+ * </pre>
+ * The usual rules of {@link ReentrantReadWriteUpdateLock} apply per stripe. In particular a thread which holds the
+ * read lock for one key cannot acquire the update lock or write lock for another key which shares its stripe.
+ *
+ * @author Niall Gallagher
+ */
+public class StripedReadWriteUpdateLock {
+
+    /**
+     * The maximum number of stripes.
+     */
+    public static final int MAX_STRIPES = 1 << 30;
+
+    final ReentrantReadWriteUpdateLock[] stripes;
+    final int mask;
+
+    /**
+     * Creates stripes configured with the defaults of {@link ReentrantReadWriteUpdateLock#builder()}.
+     *
+     * @param stripes The minimum number of stripes, which is rounded up to a power of two
+     */
+    public StripedReadWriteUpdateLock(int stripes) {
+        this(stripes, ReentrantReadWriteUpdateLock.builder());
+    }
+
+    /**
+     * Creates stripes configured by the given builder. Any monitor configured on the builder is shared by all stripes.
+     *
+     * @param stripes The minimum number of stripes, which is rounded up to a power of two
+     * @param builder The configuration of each stripe
+     */
+    public StripedReadWriteUpdateLock(int stripes, ReentrantReadWriteUpdateLock.Builder builder) {
+        if (stripes < 1 || stripes > MAX_STRIPES) {
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        }
+        if (builder == null) {
+            throw new IllegalArgumentException("Builder cannot be null");
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ReentrantReadWriteUpdateLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteUpdateLock(builder, true);
+        }
+    }
+
+    /**
+     * @return The number of stripes
+     */
+    public int size() {
+        return stripes.length;
+    }
+
+    /**
+     * @param key A key, which may be null
+     * @return The index of the stripe to which the key maps
+     */
+    public int indexFor(Object key) {
+        // Spread the hash code, so that keys whose hash codes differ only in their high bits map to different stripes...
+        int hash = (key == null ? 0 : key.hashCode()) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * @param key A key, which may be null
+     * @return The stripe to which the key maps
+     */
+    public ReentrantReadWriteUpdateLock get(Object key) {
+        return stripes[indexFor(key)];
+    }
+
+    /**
+     * @param index The index of a stripe, from zero to {@link #size()} - 1
+     * @return The stripe at the index
+     */
+    public ReentrantReadWriteUpdateLock getAt(int index) {
+        return stripes[index];
+    }
+
+    /**
+     * @param key A key, which may be null
+     * @return The read lock of the stripe to which the key maps
+     */
+    public Lock readLock(Object key) {
+        return get(key).readLock();
+    }
+
+    /**
+     * @param key A key, which may be null
+     * @return The update lock of the stripe to which the key maps
+     */
+    public Lock updateLock(Object key) {
+        return get(key).updateLock();
+    }
+
+    /**
+     * @param key A key, which may be null
+     * @return The write lock of the stripe to which the key maps
+     */
+    public Lock writeLock(Object key) {
+        return get(key).writeLock();
+    }
+
+    /**
+     * Returns the distinct stripes to which the given keys map, in ascending order of stripe index.
+     *
+     * @param keys Keys, which may contain duplicates and nulls
+     * @return The distinct stripes to which the keys map, in ascending order of stripe index
+     */
+    public List<ReentrantReadWriteUpdateLock> bulkGet(Iterable<?> keys) {
+        BitSet indexes = new BitSet(stripes.length);
+        for (Object key : keys) {
+            indexes.set(indexFor(key));
+        }
+        if (indexes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ReentrantReadWriteUpdateLock> result = new ArrayList<ReentrantReadWriteUpdateLock>(indexes.cardinality());
+        for (int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1)) {
+            result.add(stripes[index]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a lock which acquires the read locks of the distinct stripes to which the given keys map, in ascending
+     * order of stripe index, and releases them in the reverse order.
+     *
+     * @param keys Keys, which may contain duplicates and nulls
+     * @return A composite lock of the read locks of the stripes to which the keys map
+     */
+    public CompositeLock bulkReadLock(Iterable<?> keys) {
+        List<ReentrantReadWriteUpdateLock> locks = bulkGet(keys);
+        Lock[] readLocks = new Lock[locks.size()];
+        for (int i = 0; i < readLocks.length; i++) {
+            readLocks[i] = locks.get(i).readLock();
+        }
+        return new CompositeLock(readLocks);
+    }
+
+    /**
+     * Returns a lock which acquires the update locks of the distinct stripes to which the given keys map, in
+     * ascending order of stripe index, and releases them in the reverse order.
+     *
+     * @param keys Keys, which may contain duplicates and nulls
+     * @return A composite lock of the update locks of the stripes to which the keys map
+     */
+    public CompositeLock bulkUpdateLock(Iterable<?> keys) {
+        List<ReentrantReadWriteUpdateLock> locks = bulkGet(keys);
+        Lock[] updateLocks = new Lock[locks.size()];
+        for (int i = 0; i < updateLocks.length; i++) {
+            updateLocks[i] = locks.get(i).updateLock();
+        }
+        return new CompositeLock(updateLocks);
+    }
+
+    /**
+     * Returns a lock which acquires the write locks of the distinct stripes to which the given keys map, in ascending
+     * order of stripe index, and releases them in the reverse order. A thread which holds the update locks of the same
+     * keys, via {@link #bulkUpdateLock(Iterable)}, upgrades them by acquiring this lock.
+     *
+     * @param keys Keys, which may contain duplicates and nulls
+     * @return A composite lock of the write locks of the stripes to which the keys map
+     */
+    public CompositeLock bulkWriteLock(Iterable<?> keys) {
+        List<ReentrantReadWriteUpdateLock> locks = bulkGet(keys);
+        Lock[] writeLocks = new Lock[locks.size()];
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = locks.get(i).writeLock();
+        }
+        return new CompositeLock(writeLocks);
+    }
+}
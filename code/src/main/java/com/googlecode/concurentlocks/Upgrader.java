@@ -0,0 +1,48 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+/**
+ * Passed to a function run via {@link ReadWriteUpdateLock#update}, allowing the function to upgrade to the write
+ * lock if and when it decides to write:
+ * <pre>
+ * readWriteUpdateLock.update(upgrader -> {
+ *     Document document = readInDocument();
+ *     if (shouldUpdate(document)) {
+ *         try (LockHandle write = upgrader.acquireWriteLock()) {
+ *             writeOutDocument(generateNewVersion(document));
+ *         }
+ *     }
+ *     return document;
+ * });
+ * </pre>
+ * If the function was running optimistically, and another thread wrote since the function started, acquiring the
+ * write lock throws an exception private to the lock, which the lock catches in order to run the function again
+ * while holding the update lock. So functions must not catch and suppress exceptions thrown by this method.
+ *
+ * @author Niall Gallagher
+ */
+public interface Upgrader {
+
+    /**
+     * Acquires the write lock, first acquiring the update lock if the function was running optimistically, and
+     * returns a handle which releases the write lock when closed. The update lock, if acquired, is held until the
+     * function returns.
+     *
+     * @return a handle which releases the write lock when closed
+     */
+    LockHandle acquireWriteLock();
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.jfr;
+
+import com.googlecode.concurentlocks.LockMode;
+import com.googlecode.concurentlocks.LockMonitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link LockMonitor} which commits JDK Flight Recorder events for slow lock acquisitions and long holds, so that
+ * they appear in recordings with the identity of the lock, the mode, the time spent and the thread which held the
+ * update lock, rather than only as anonymous parks inside the lock's synchronizer:
+ * <ul>
+ *     <li>
+ *         {@link LockWaitEvent} - a thread waited at least the wait threshold to acquire a lock, or timed out
+ *     </li>
+ *     <li>
+ *         {@link LockUpgradeEvent} - a thread holding the update lock waited at least the wait threshold for readers
+ *         to drain, to acquire the write lock
+ *     </li>
+ *     <li>
+ *         {@link LockHoldEvent} - a thread held a lock for at least the hold threshold
+ *     </li>
+ * </ul>
+ * Acquisitions which did not wait are never recorded. Faster waits and shorter holds cost only a comparison, and no
+ * events are allocated for them. The events are also subject to being enabled in the recording, and carry a stack
+ * trace of the acquisition or release by default. Usage:
+ * <pre>
+ * ReentrantReadWriteUpdateLock lock = ReentrantReadWriteUpdateLock.builder()
+ *         .monitor(new JfrLockMonitor(10, 100, TimeUnit.MILLISECONDS))
+ *         .build();
+ * </pre>
+ * This package requires the {@code jdk.jfr} module, but nothing else in the library depends on it, so the library
+ * works on runtimes without JFR as long as this class is not used there.
+ *
+ * @author Niall Gallagher
+ */
+public class JfrLockMonitor implements LockMonitor {
+
+    /**
+     * The default wait and hold threshold, in milliseconds, which matches the default threshold applied by JFR to
+     * contended monitor enter events.
+     */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 20L;
+
+    final long waitThresholdNanos;
+    final long holdThresholdNanos;
+
+    /**
+     * Creates a monitor with the default wait and hold thresholds of {@value #DEFAULT_THRESHOLD_MILLIS} milliseconds.
+     */
+    public JfrLockMonitor() {
+        this(DEFAULT_THRESHOLD_MILLIS, DEFAULT_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param waitThreshold the minimum time a thread must wait to acquire a lock for the wait to be recorded
+     * @param holdThreshold the minimum time a thread must hold a lock for the hold to be recorded
+     * @param unit the unit of the thresholds
+     */
+    public JfrLockMonitor(long waitThreshold, long holdThreshold, TimeUnit unit) {
+        if (waitThreshold < 0L || holdThreshold < 0L) {
+            throw new IllegalArgumentException("Thresholds must not be negative: " + waitThreshold + ", " + holdThreshold);
+        }
+        this.waitThresholdNanos = unit.toNanos(waitThreshold);
+        this.holdThresholdNanos = unit.toNanos(holdThreshold);
+    }
+
+    @Override
+    public void acquired(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        if (waitNanos > 0L && waitNanos >= waitThresholdNanos) {
+            commitWait(lock, mode, waitNanos, owner, false);
+        }
+    }
+
+    @Override
+    public void timedOut(Object lock, LockMode mode, long waitNanos, Thread owner) {
+        if (waitNanos >= waitThresholdNanos) {
+            commitWait(lock, mode, waitNanos, owner, true);
+        }
+    }
+
+    @Override
+    public void released(Object lock, LockMode mode, long holdNanos) {
+        if (holdNanos >= holdThresholdNanos) {
+            LockHoldEvent event = new LockHoldEvent();
+            if (event.isEnabled()) {
+                event.lockClass = lock.getClass();
+                event.lockIdentity = System.identityHashCode(lock);
+                event.mode = mode.name();
+                event.holdDuration = holdNanos;
+                event.commit();
+            }
+        }
+    }
+
+    static void commitWait(Object lock, LockMode mode, long waitNanos, Thread owner, boolean timedOut) {
+        if (mode == LockMode.UPGRADE) {
+            LockUpgradeEvent event = new LockUpgradeEvent();
+            if (event.isEnabled()) {
+                event.lockClass = lock.getClass();
+                event.lockIdentity = System.identityHashCode(lock);
+                event.waitDuration = waitNanos;
+                event.timedOut = timedOut;
+                event.commit();
+            }
+        }
+        else {
+            LockWaitEvent event = new LockWaitEvent();
+            if (event.isEnabled()) {
+                event.lockClass = lock.getClass();
+                event.lockIdentity = System.identityHashCode(lock);
+                event.mode = mode.name();
+                event.waitDuration = waitNanos;
+                event.updateOwner = owner;
+                event.timedOut = timedOut;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @return the wait and hold thresholds of this monitor
+     */
+    @Override
+    public String toString() {
+        return "JfrLockMonitor{waitThreshold=" + waitThresholdNanos + "ns, holdThreshold=" + holdThresholdNanos + "ns}";
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event recording that a thread held a lock for longer than the hold threshold of a {@link JfrLockMonitor}.
+ * The event is committed when the lock is released, by the thread which held it.
+ *
+ * @author Niall Gallagher
+ */
+@Name("com.googlecode.concurentlocks.LockHold")
+@Label("Lock Hold")
+@Category({"Java Application", "Concurrent Locks"})
+@Description("A thread held a lock for a long time")
+public final class LockHoldEvent extends jdk.jfr.Event {
+
+    @Label("Lock Class")
+    Class<?> lockClass;
+
+    @Label("Lock Identity Hash Code")
+    int lockIdentity;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Hold Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long holdDuration;
+}
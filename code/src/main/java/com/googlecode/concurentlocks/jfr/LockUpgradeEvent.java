@@ -0,0 +1,49 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event recording that a thread holding the update lock waited to upgrade it to the write lock, or timed out
+ * waiting, for longer than the wait threshold of a {@link JfrLockMonitor}. The thread waited for readers to release
+ * the read lock, as no other thread can hold the update lock at the same time.
+ *
+ * @author Niall Gallagher
+ */
+@Name("com.googlecode.concurentlocks.LockUpgrade")
+@Label("Lock Upgrade")
+@Category({"Java Application", "Concurrent Locks"})
+@Description("A thread holding the update lock waited for readers to drain to acquire the write lock")
+public final class LockUpgradeEvent extends jdk.jfr.Event {
+
+    @Label("Lock Class")
+    Class<?> lockClass;
+
+    @Label("Lock Identity Hash Code")
+    int lockIdentity;
+
+    @Label("Wait Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitDuration;
+
+    @Label("Timed Out")
+    boolean timedOut;
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event recording that a thread waited to acquire a lock, or timed out waiting, for longer than the wait
+ * threshold of a {@link JfrLockMonitor}. Waits to upgrade the update lock to the write lock are recorded as
+ * {@link LockUpgradeEvent}s instead.
+ * <p/>
+ * The update lock owner is only recorded if that thread was still alive when the waiting thread acquired the lock,
+ * as JFR does not record threads which have terminated.
+ *
+ * @author Niall Gallagher
+ */
+@Name("com.googlecode.concurentlocks.LockWait")
+@Label("Lock Wait")
+@Category({"Java Application", "Concurrent Locks"})
+@Description("A thread waited to acquire a lock")
+public final class LockWaitEvent extends jdk.jfr.Event {
+
+    @Label("Lock Class")
+    Class<?> lockClass;
+
+    @Label("Lock Identity Hash Code")
+    int lockIdentity;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Wait Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitDuration;
+
+    @Label("Update Lock Owner")
+    @Description("The thread which held the update lock when the wait started, if any, and if still alive when the wait ended")
+    Thread updateOwner;
+
+    @Label("Timed Out")
+    boolean timedOut;
+}
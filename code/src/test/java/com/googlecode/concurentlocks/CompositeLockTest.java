@@ -17,7 +17,14 @@ package com.googlecode.concurentlocks;
 
 import org.junit.Test;
 
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -81,12 +88,298 @@ public class CompositeLockTest {
         assertEquals(0, lock2.holdCount().value);
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testNewCondition() throws Exception {
+    @Test
+    public void testUnlockInReverseOrder() throws Exception {
+        final StringBuilder unlockOrder = new StringBuilder();
+        Lock[] locks = new Lock[3];
+        for (int i = 0; i < locks.length; i++) {
+            final int index = i;
+            locks[i] = new ReentrantLock() {
+                @Override
+                public void unlock() {
+                    unlockOrder.append(index);
+                    super.unlock();
+                }
+            };
+        }
+        CompositeLock compositeLock = new CompositeLock(new LinkedList<Lock>(Arrays.asList(locks)));
+        compositeLock.lock();
+        compositeLock.unlock();
+        assertEquals("210", unlockOrder.toString());
+    }
+
+    @Test
+    public void testLockAndUnlockDoNotAllocate() throws Exception {
+        final CompositeLock compositeLock = new CompositeLock(new ReentrantLock(), new ReentrantLock());
+        LocksTest.assertDoesNotAllocate(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                compositeLock.lock();
+                compositeLock.unlock();
+                assertTrue(compositeLock.tryLock());
+                compositeLock.unlock();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testInCanonicalOrder() throws Exception {
+        final ReentrantLock lock1 = new ReentrantLock();
+        final ReentrantLock lock2 = new ReentrantLock();
+        final ReentrantLock lock3 = new ReentrantLock();
+        CompositeLock compositeLock1 = CompositeLock.inCanonicalOrder(lock1, lock2, lock3);
+        CompositeLock compositeLock2 = CompositeLock.inCanonicalOrder(lock3, lock2, lock1);
+        assertEquals(Arrays.asList(compositeLock1.locks), Arrays.asList(compositeLock2.locks));
+
+        // Composite locks sharing locks supplied in opposite orders should not deadlock...
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (final CompositeLock compositeLock : new CompositeLock[] {compositeLock1, compositeLock2}) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < 10000; i++) {
+                            compositeLock.lock();
+                            compositeLock.unlock();
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(60L, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertFalse(lock1.isLocked() || lock2.isLocked() || lock3.isLocked());
+    }
+
+    @Test
+    public void testCondition() throws Exception {
+        final ReentrantLock lock1 = new ReentrantLock();
+        final ReentrantLock lock2 = new ReentrantLock();
+        final CompositeLock compositeLock = new CompositeLock(lock1, lock2);
+        final Condition condition = compositeLock.newCondition();
+        final AtomicBoolean ready = new AtomicBoolean();
+        final CountDownLatch locked = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Acquire the composite lock in a background thread and await the condition...
+            Future<Boolean> await = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    compositeLock.lock();
+                    try {
+                        locked.countDown();
+                        while (!ready.get()) {
+                            condition.await();
+                        }
+                        return lock1.isHeldByCurrentThread() && lock2.isHeldByCurrentThread();
+                    }
+                    finally {
+                        compositeLock.unlock();
+                    }
+                }
+            });
+
+            // Acquire the composite lock in foreground thread, should succeed once background thread is waiting...
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            assertTrue(compositeLock.tryLock(10, TimeUnit.SECONDS));
+            try {
+                ready.set(true);
+                condition.signal();
+                assertFalse(await.isDone());
+            }
+            finally {
+                compositeLock.unlock();
+            }
+            // Background thread should re-acquire all backing locks before returning...
+            assertTrue(await.get(10, TimeUnit.SECONDS));
+            assertFalse(lock1.isLocked() || lock2.isLocked());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCondition_SignalAll() throws Exception {
+        final CompositeLock compositeLock = new CompositeLock(new ReentrantLock(), new ReentrantLock());
+        final Condition condition = compositeLock.newCondition();
+        final AtomicBoolean ready = new AtomicBoolean();
+        final CountDownLatch locked = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        compositeLock.lock();
+                        try {
+                            locked.countDown();
+                            while (!ready.get()) {
+                                condition.await();
+                            }
+                            return true;
+                        }
+                        finally {
+                            compositeLock.unlock();
+                        }
+                    }
+                }));
+            }
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            compositeLock.lock();
+            try {
+                ready.set(true);
+                condition.signalAll();
+            }
+            finally {
+                compositeLock.unlock();
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCondition_AwaitTimeout() throws Exception {
         HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
         HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
         CompositeLock compositeLock = new CompositeLock(lock1, lock2);
-        compositeLock.newCondition();
+        Condition condition = compositeLock.newCondition();
+        compositeLock.lock();
+        assertTrue(condition.awaitNanos(TimeUnit.MILLISECONDS.toNanos(10)) <= 0L);
+        assertFalse(condition.await(10, TimeUnit.MILLISECONDS));
+        assertFalse(condition.awaitUntil(new Date(System.currentTimeMillis() + 10)));
+        assertEquals(1, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        compositeLock.unlock();
+        assertEquals(0, lock1.holdCount().value);
+        assertEquals(0, lock2.holdCount().value);
+    }
+
+    @Test
+    public void testCondition_InterruptedReacquiresLocks() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
+        CompositeLock compositeLock = new CompositeLock(lock1, lock2);
+        Condition condition = compositeLock.newCondition();
+        compositeLock.lock();
+        Thread.currentThread().interrupt();
+        Exception expected = null;
+        try {
+            condition.await();
+        }
+        catch (InterruptedException e) {
+            expected = e;
+        }
+        assertNotNull(expected);
+        assertEquals(1, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        compositeLock.unlock();
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testCondition_NotHeld() throws Exception {
+        CompositeLock compositeLock = new CompositeLock(new ReentrantLock(), new ReentrantLock());
+        compositeLock.newCondition().await();
+    }
+
+    @Test
+    public void testCondition_SignalNotHeld() throws Exception {
+        final CompositeLock compositeLock = new CompositeLock(new ReentrantLock(), new ReentrantLock());
+        Condition condition = compositeLock.newCondition();
+        try {
+            condition.signal();
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        try {
+            condition.signalAll();
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        // Another thread holding the composite lock should not allow this thread to signal...
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return compositeLock.tryLock();
+                }
+            }).get());
+            try {
+                condition.signal();
+                fail("Should throw IllegalMonitorStateException");
+            }
+            catch (IllegalMonitorStateException expected) {
+            }
+            assertTrue(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    compositeLock.unlock();
+                    return true;
+                }
+            }).get());
+        }
+        finally {
+            executor.shutdown();
+        }
+        compositeLock.lock();
+        condition.signal();
+        condition.signalAll();
+        compositeLock.unlock();
+    }
+
+    @Test
+    public void testHoldsTrackedOnlyOnceConditionCreated() throws Exception {
+        CompositeLock compositeLock = new CompositeLock(new ReentrantLock(), new ReentrantLock());
+        compositeLock.lock();
+        compositeLock.unlock();
+        assertNull(compositeLock.holds);
+        Condition condition = compositeLock.newCondition();
+        assertNotNull(compositeLock.holds);
+        compositeLock.lock();
+        assertEquals(1L, compositeLock.holds.get()[0]);
+        condition.signal();
+        compositeLock.unlock();
+        assertEquals(0L, compositeLock.holds.get()[0]);
+        assertSame(compositeLock.holds, ((CompositeLock.CompositeCondition) compositeLock.newCondition()).holds);
+        // A monitored composite lock tracks holds from the start...
+        assertNotNull(new CompositeLock(new LockStatistics(), new ReentrantLock()).holds);
+    }
+
+    @Test
+    public void testCondition_AwaitHeldReentrantly() throws Exception {
+        ReentrantLock lock1 = new ReentrantLock(), lock2 = new ReentrantLock();
+        CompositeLock compositeLock = new CompositeLock(lock1, lock2);
+        Condition condition = compositeLock.newCondition();
+        compositeLock.lock();
+        compositeLock.lock();
+        try {
+            condition.await(10, TimeUnit.MILLISECONDS);
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        // The backing locks should still be held...
+        assertEquals(2, lock1.getHoldCount());
+        assertEquals(2, lock2.getHoldCount());
+        compositeLock.unlock();
+        compositeLock.unlock();
+        assertFalse(lock1.isLocked() || lock2.isLocked());
     }
 
     static class HoldCountLock extends ReentrantReadWriteUpdateLock.HoldCountLock {
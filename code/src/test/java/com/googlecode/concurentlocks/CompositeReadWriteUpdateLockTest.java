@@ -0,0 +1,404 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class CompositeReadWriteUpdateLockTest {
+
+    ExecutorService executor;
+    ReentrantReadWriteUpdateLock member1, member2;
+    CompositeReadWriteUpdateLock compositeLock;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        member1 = new ReentrantReadWriteUpdateLock();
+        member2 = new ReentrantReadWriteUpdateLock();
+        compositeLock = new CompositeReadWriteUpdateLock(member1, member2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReadLock() throws Exception {
+        compositeLock.readLock().lock();
+        assertEquals(1, member1.getReadHoldCount());
+        assertEquals(1, member2.getReadHoldCount());
+        compositeLock.readLock().unlock();
+        assertEquals(0, member1.getReadHoldCount());
+        assertEquals(0, member2.getReadHoldCount());
+    }
+
+    @Test
+    public void testUpdateLockDoesNotBlockReaders() throws Exception {
+        compositeLock.updateLock().lock();
+        assertTrue(compositeLock.isUpdateLockedByCurrentThread());
+        assertTrue(member1.isUpdateLockedByCurrentThread());
+        assertTrue(member2.isUpdateLockedByCurrentThread());
+        assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.LockUnlockTask(compositeLock.readLock())).get(10, TimeUnit.SECONDS));
+        assertFalse(executor.submit(new ReentrantReadWriteUpdateLockTest.TryLockTask(compositeLock.updateLock())).get(10, TimeUnit.SECONDS));
+        compositeLock.updateLock().unlock();
+        assertFalse(compositeLock.isUpdateLockedByCurrentThread());
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test
+    public void testWriteLock() throws Exception {
+        compositeLock.writeLock().lock();
+        assertTrue(compositeLock.isWriteLockedByCurrentThread());
+        assertTrue(member1.isWriteLockedByCurrentThread());
+        assertTrue(member2.isWriteLockedByCurrentThread());
+        // Members should hold the update lock only by virtue of the write lock...
+        assertEquals(1, member1.getUpdateHoldCount());
+        assertEquals(1, member2.getUpdateHoldCount());
+        assertFalse(executor.submit(new ReentrantReadWriteUpdateLockTest.TryLockTask(compositeLock.readLock())).get(10, TimeUnit.SECONDS));
+        compositeLock.writeLock().unlock();
+        assertFalse(compositeLock.isWriteLockedByCurrentThread());
+        assertFalse(compositeLock.isUpdateLockedByCurrentThread());
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test
+    public void testUpgradeAndDowngrade() throws Exception {
+        compositeLock.updateLock().lock();
+        compositeLock.writeLock().lock();
+        assertTrue(member1.isWriteLockedByCurrentThread());
+        assertTrue(member2.isWriteLockedByCurrentThread());
+        assertEquals(2, member1.getUpdateHoldCount());
+        compositeLock.writeLock().unlock();
+        assertFalse(member1.isWriteLocked() || member2.isWriteLocked());
+        assertTrue(compositeLock.isUpdateLockedByCurrentThread());
+        assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.LockUnlockTask(compositeLock.readLock())).get(10, TimeUnit.SECONDS));
+        compositeLock.updateLock().unlock();
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test
+    public void testUpgradeKeepsReadersFlowingOnOtherMembers() throws Exception {
+        for (ReentrantReadWriteUpdateLock busyMember : new ReentrantReadWriteUpdateLock[] {member1, member2}) {
+            ReentrantReadWriteUpdateLock otherMember = busyMember == member1 ? member2 : member1;
+
+            // Hold the read lock of one member in a background thread...
+            final CountDownLatch readLocked = new CountDownLatch(1), readUnlock = new CountDownLatch(1);
+            Future<Boolean> reader = executor.submit(new ReadTask(busyMember.readLock(), readLocked, readUnlock));
+            assertTrue(readLocked.await(10, TimeUnit.SECONDS));
+
+            // Upgrade in another background thread, which should wait for the read lock of that member only...
+            Future<Boolean> upgrade = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    compositeLock.updateLock().lock();
+                    compositeLock.writeLock().lock();
+                    compositeLock.writeLock().unlock();
+                    compositeLock.updateLock().unlock();
+                    return true;
+                }
+            });
+            while (!busyMember.isUpgradePending()) {
+                Thread.sleep(1L);
+            }
+            assertFalse(otherMember.isWriteLocked());
+            assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.LockUnlockTask(otherMember.readLock())).get(10, TimeUnit.SECONDS));
+            assertFalse(upgrade.isDone());
+
+            // Release the read lock, the upgrade should then complete...
+            readUnlock.countDown();
+            assertTrue(reader.get(10, TimeUnit.SECONDS));
+            assertTrue(upgrade.get(10, TimeUnit.SECONDS));
+            assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+        }
+    }
+
+    @Test
+    public void testTryLockWithTimeout_RollsBack() throws Exception {
+        final CountDownLatch readLocked = new CountDownLatch(1), readUnlock = new CountDownLatch(1);
+        Future<Boolean> reader = executor.submit(new ReadTask(member2.readLock(), readLocked, readUnlock));
+        assertTrue(readLocked.await(10, TimeUnit.SECONDS));
+
+        assertFalse(compositeLock.writeLock().tryLock());
+        assertFalse(compositeLock.writeLock().tryLock(20, TimeUnit.MILLISECONDS));
+        assertFalse(compositeLock.isWriteLockedByCurrentThread());
+        assertFalse(compositeLock.isUpdateLockedByCurrentThread());
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+
+        readUnlock.countDown();
+        assertTrue(reader.get(10, TimeUnit.SECONDS));
+        assertTrue(compositeLock.writeLock().tryLock(10, TimeUnit.SECONDS));
+        compositeLock.writeLock().unlock();
+    }
+
+    @Test
+    public void testNoDeadlockWithOverlappingComposites() throws Exception {
+        ReentrantReadWriteUpdateLock member3 = new ReentrantReadWriteUpdateLock();
+        final CompositeReadWriteUpdateLock[] compositeLocks = {
+                new CompositeReadWriteUpdateLock(member1, member2, member3),
+                new CompositeReadWriteUpdateLock(member3, member2, member1),
+                new CompositeReadWriteUpdateLock(member2, member1)
+        };
+        final AtomicInteger writes = new AtomicInteger();
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            completionService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 2000; i++) {
+                        CompositeReadWriteUpdateLock lock = compositeLocks[(thread + i) % compositeLocks.length];
+                        if (i % 3 == 0) {
+                            try (LockHandle write = lock.acquireWriteLock()) {
+                                writes.incrementAndGet();
+                            }
+                        }
+                        else if (i % 3 == 1) {
+                            try (LockHandle update = lock.acquireUpdateLock()) {
+                                try (LockHandle write = lock.acquireWriteLock()) {
+                                    writes.incrementAndGet();
+                                }
+                            }
+                        }
+                        else {
+                            try (LockHandle read = lock.acquireReadLock()) {
+                                writes.get();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        for (int t = 0; t < 4; t++) {
+            completionService.take().get(60, TimeUnit.SECONDS);
+        }
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked() || member3.isUpdateLocked());
+    }
+
+    @Test
+    public void testFunctionalApi() throws Exception {
+        final int[] value = {1};
+        assertEquals(Integer.valueOf(1), compositeLock.read(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return value[0];
+            }
+        }));
+        assertEquals(Integer.valueOf(2), compositeLock.update(value, new BiFunction<int[], Upgrader, Integer>() {
+            @Override
+            public Integer apply(int[] value, Upgrader upgrader) {
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    assertTrue(member1.isWriteLockedByCurrentThread() && member2.isWriteLockedByCurrentThread());
+                    return ++value[0];
+                }
+            }
+        }));
+        compositeLock.write(value, new Consumer<int[]>() {
+            @Override
+            public void accept(int[] value) {
+                assertTrue(member1.isWriteLockedByCurrentThread() && member2.isWriteLockedByCurrentThread());
+                value[0]++;
+            }
+        });
+        assertEquals(3, value[0]);
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test
+    public void testUpdateRetriesWhenFunctionCatchesValidationFailure() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = compositeLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                if (attempts.incrementAndGet() == 1) {
+                    // Write to one member directly, which should invalidate the optimistic update...
+                    try {
+                        assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.LockUnlockTask(member2.writeLock())).get(10, TimeUnit.SECONDS));
+                    }
+                    catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    return "written";
+                }
+                catch (RuntimeException e) {
+                    // A function which swallows the failure should not have its stale result returned...
+                    return "stale";
+                }
+            }
+        });
+        assertEquals("written", result);
+        assertEquals(2, attempts.get());
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test
+    public void testReadRetriesUnderLockWhenInvalidated() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        Integer result = compositeLock.read(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                if (attempts.incrementAndGet() == 1) {
+                    // Write to one member directly, which should invalidate the optimistic read...
+                    try {
+                        assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.LockUnlockTask(member2.writeLock())).get(10, TimeUnit.SECONDS));
+                    }
+                    catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return member1.getReadHoldCount() + member2.getReadHoldCount();
+            }
+        });
+        assertEquals(2, attempts.get());
+        assertEquals(Integer.valueOf(2), result);
+    }
+
+    @Test
+    public void testOptimisticRead() throws Exception {
+        long stamp = compositeLock.tryOptimisticRead();
+        assertTrue(stamp != 0L);
+        assertTrue(compositeLock.validate(stamp));
+        assertFalse(compositeLock.validate(0L));
+
+        // A stamp cannot be validated by another thread...
+        final long issuedStamp = stamp;
+        assertFalse(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return compositeLock.validate(issuedStamp);
+            }
+        }).get(10, TimeUnit.SECONDS));
+
+        // A write to any member invalidates the stamp...
+        member1.writeLock().lock();
+        assertFalse(compositeLock.validate(stamp));
+        assertEquals(0L, compositeLock.tryOptimisticRead());
+        member1.writeLock().unlock();
+
+        stamp = compositeLock.tryOptimisticRead();
+        long nextStamp = compositeLock.tryOptimisticRead();
+        assertTrue(stamp != nextStamp);
+        assertFalse(compositeLock.validate(stamp));
+        assertTrue(compositeLock.validate(nextStamp));
+    }
+
+    @Test
+    public void testUnlockNotHeld() throws Exception {
+        try {
+            compositeLock.updateLock().unlock();
+            fail("Should throw exception");
+        }
+        catch (IllegalMonitorStateException expected) {
+            // Expected
+        }
+        try {
+            compositeLock.writeLock().unlock();
+            fail("Should throw exception");
+        }
+        catch (IllegalMonitorStateException expected) {
+            // Expected
+        }
+        compositeLock.writeLock().lock();
+        try {
+            compositeLock.updateLock().unlock();
+            fail("Should throw exception");
+        }
+        catch (IllegalMonitorStateException expected) {
+            // Expected
+        }
+        compositeLock.writeLock().unlock();
+    }
+
+    @Test
+    public void testUpdateLockCondition() throws Exception {
+        final Condition condition = compositeLock.updateLock().newCondition();
+        compositeLock.updateLock().lock();
+        assertFalse(condition.await(10, TimeUnit.MILLISECONDS));
+        assertTrue(member1.isUpdateLockedByCurrentThread() && member2.isUpdateLockedByCurrentThread());
+        compositeLock.updateLock().unlock();
+    }
+
+    @Test
+    public void testUpdateLockConditionRefusesToAwaitWhileHoldingWriteLock() throws Exception {
+        Condition condition = compositeLock.updateLock().newCondition();
+        compositeLock.updateLock().lock();
+        compositeLock.writeLock().lock();
+        try {
+            condition.await(10, TimeUnit.MILLISECONDS);
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        // The update and write locks of every member should still be held...
+        assertTrue(member1.isWriteLockedByCurrentThread() && member2.isWriteLockedByCurrentThread());
+        assertTrue(member1.isUpdateLockedByCurrentThread() && member2.isUpdateLockedByCurrentThread());
+        condition.signalAll();
+        compositeLock.writeLock().unlock();
+        assertFalse(condition.await(10, TimeUnit.MILLISECONDS));
+        compositeLock.updateLock().unlock();
+        assertFalse(member1.isUpdateLocked() || member2.isUpdateLocked());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWriteLockNewCondition() throws Exception {
+        compositeLock.writeLock().newCondition();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoMembers() throws Exception {
+        new CompositeReadWriteUpdateLock();
+    }
+
+    static class ReadTask implements Callable<Boolean> {
+        final Lock lock;
+        final CountDownLatch locked, unlock;
+        public ReadTask(Lock lock, CountDownLatch locked, CountDownLatch unlock) {
+            this.lock = lock;
+            this.locked = locked;
+            this.unlock = unlock;
+        }
+        @Override
+        public Boolean call() throws Exception {
+            lock.lock();
+            try {
+                locked.countDown();
+                return unlock.await(10, TimeUnit.SECONDS);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
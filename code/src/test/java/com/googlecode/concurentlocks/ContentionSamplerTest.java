@@ -0,0 +1,203 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import com.googlecode.concurentlocks.jfr.JfrLockMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class ContentionSamplerTest {
+
+    ExecutorService executor1;
+    ContentionSampler sampler;
+    ReentrantReadWriteUpdateLock lock;
+
+    @Before
+    public void setUp() throws Exception {
+        executor1 = Executors.newSingleThreadExecutor();
+        sampler = new ContentionSampler(1.0, 2);
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(sampler).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor1.shutdown();
+    }
+
+    @Test
+    public void testUncontendedAcquisitionsNotSampled() {
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.updateLock().lock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        lock.updateLock().unlock();
+        assertTrue(sampler.getCallSites().isEmpty());
+    }
+
+    @Test
+    public void testWaitsAttributedToCallSites() throws Exception {
+        // Call sites include line numbers, so call A twice from the same line...
+        for (int i = 0; i < 2; i++) {
+            holdWriteLockInThread1(10);
+            readFromCallSiteA();
+        }
+        holdWriteLockInThread1(10);
+        updateFromCallSiteB();
+
+        List<ContentionSampler.CallSite> callSites = sampler.getCallSites();
+        assertEquals(2, callSites.size());
+        ContentionSampler.CallSite a = sampler.getCallSites(LockMode.READ).get(0);
+        ContentionSampler.CallSite b = sampler.getCallSites(LockMode.UPDATE).get(0);
+        assertEquals(2, a.getSamples());
+        assertEquals(1, b.getSamples());
+        assertEquals(0, a.getTimeouts());
+        assertTrue(a.getMaxWaitNanos() > 0L);
+        assertTrue(a.getMaxWaitNanos() < a.getTotalWaitNanos());
+        assertEquals(b.getMaxWaitNanos(), b.getTotalWaitNanos());
+
+        // Call sites should be the innermost frames outside the lock, to the configured depth...
+        StackTraceElement[] stackTrace = a.getStackTrace();
+        assertEquals(2, stackTrace.length);
+        assertEquals("readFromCallSiteA", stackTrace[0].getMethodName());
+        assertEquals("testWaitsAttributedToCallSites", stackTrace[1].getMethodName());
+        assertEquals("updateFromCallSiteB", b.getStackTrace()[0].getMethodName());
+
+        sampler.clear();
+        assertTrue(sampler.getCallSites().isEmpty());
+    }
+
+    @Test
+    public void testTimeoutsSampled() throws Exception {
+        holdWriteLockInThread1(50);
+        assertFalse(lock.updateLock().tryLock(10, TimeUnit.MILLISECONDS));
+        ContentionSampler.CallSite callSite = sampler.getCallSites(LockMode.UPDATE).get(0);
+        assertEquals(1, callSite.getSamples());
+        assertEquals(1, callSite.getTimeouts());
+        assertEquals("testTimeoutsSampled", callSite.getStackTrace()[0].getMethodName());
+    }
+
+    @Test
+    public void testFunctionalApiFramesSkipped() throws Exception {
+        sampler = new ContentionSampler(1.0);
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(sampler).build();
+        holdWriteLockInThread1(10);
+        lock.write(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        StackTraceElement[] stackTrace = sampler.getCallSites(LockMode.WRITE).get(0).getStackTrace();
+        assertEquals(1, stackTrace.length);
+        assertEquals("testFunctionalApiFramesSkipped", stackTrace[0].getMethodName());
+    }
+
+    @Test
+    public void testDefaultFunctionalApiFramesSkipped() throws Exception {
+        sampler = new ContentionSampler(1.0);
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(sampler).build();
+        holdWriteLockInThread1(10);
+        new ReadWriteUpdateLockTest.MinimalReadWriteUpdateLock(lock).write(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        StackTraceElement[] stackTrace = sampler.getCallSites(LockMode.WRITE).get(0).getStackTrace();
+        assertEquals(1, stackTrace.length);
+        assertEquals("testDefaultFunctionalApiFramesSkipped", stackTrace[0].getMethodName());
+    }
+
+    @Test
+    public void testCompositeLockFramesSkipped() throws Exception {
+        sampler = new ContentionSampler(1.0);
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(sampler).build();
+        CompositeReadWriteUpdateLock compositeLock = new CompositeReadWriteUpdateLock(lock, new ReentrantReadWriteUpdateLock());
+        holdWriteLockInThread1(10);
+        compositeLock.write(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        StackTraceElement[] stackTrace = sampler.getCallSites(LockMode.UPDATE).get(0).getStackTrace();
+        assertEquals(1, stackTrace.length);
+        assertEquals("testCompositeLockFramesSkipped", stackTrace[0].getMethodName());
+    }
+
+    @Test
+    public void testLibraryClasses() {
+        assertTrue(ContentionSampler.isLibraryClass(ReentrantReadWriteUpdateLock.class));
+        assertTrue(ContentionSampler.isLibraryClass(ReentrantReadWriteUpdateLock.Sync.class));
+        assertTrue(ContentionSampler.isLibraryClass(StripedReadWriteUpdateLock.class));
+        assertTrue(ContentionSampler.isLibraryClass(CompositeReadWriteUpdateLock.class));
+        assertTrue(ContentionSampler.isLibraryClass(JfrLockMonitor.class));
+        // Test classes in the library's package, and classes outside of it, should be call sites...
+        assertFalse(ContentionSampler.isLibraryClass(ContentionSamplerTest.class));
+        assertFalse(ContentionSampler.isLibraryClass(ReentrantReadWriteUpdateLockTest.LockUnlockTask.class));
+        assertFalse(ContentionSampler.isLibraryClass(String.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new ContentionSampler(0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDepth() {
+        new ContentionSampler(0.5, 0);
+    }
+
+    void readFromCallSiteA() {
+        lock.readLock().lock();
+        lock.readLock().unlock();
+    }
+
+    void updateFromCallSiteB() {
+        lock.updateLock().lock();
+        lock.updateLock().unlock();
+    }
+
+    /**
+     * Acquires the write lock in executor1, returning when it has been acquired, and releases it after the given
+     * number of milliseconds.
+     */
+    void holdWriteLockInThread1(final long millis) throws Exception {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                lock.writeLock().lock();
+                try {
+                    acquired.countDown();
+                    Thread.sleep(millis);
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+                return true;
+            }
+        });
+        acquired.await();
+    }
+}
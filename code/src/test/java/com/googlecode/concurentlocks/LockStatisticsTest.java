@@ -0,0 +1,267 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class LockStatisticsTest {
+
+    ExecutorService executor1;
+    LockStatistics statistics;
+    ReentrantReadWriteUpdateLock lock;
+
+    @Before
+    public void setUp() throws Exception {
+        executor1 = Executors.newSingleThreadExecutor();
+        statistics = new LockStatistics();
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(statistics).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor1.shutdown();
+    }
+
+    @Test
+    public void testUncontendedAcquisitions() throws Exception {
+        lock.readLock().lock();
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        lock.updateLock().lock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        lock.updateLock().unlock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+
+        // Reentrant acquisitions should not be counted...
+        assertStatistics(LockMode.READ, 1, 0, 0, 1);
+        assertStatistics(LockMode.UPGRADE, 1, 0, 0, 0);
+        assertStatistics(LockMode.WRITE, 1, 0, 0, 2);
+        // The update lock is also held while the write lock is acquired without it...
+        assertStatistics(LockMode.UPDATE, 1, 0, 0, 2);
+        assertEquals(0L, statistics.get(LockMode.READ).getWaitTimes().getCount());
+    }
+
+    @Test
+    public void testContendedAcquisitionAndTimeout() throws Exception {
+        assertTrue(executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return lock.writeLock().tryLock();
+            }
+        }).get());
+
+        // A timed out attempt should be counted...
+        assertFalse(lock.readLock().tryLock(10, TimeUnit.MILLISECONDS));
+        assertStatistics(LockMode.READ, 0, 0, 1, 0);
+        assertTrue(statistics.get(LockMode.READ).getWaitTimes().getPercentile(100) >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        // A reader which waits for the write lock to be released should be counted as contended...
+        Future<Boolean> writerReleased = executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                Thread.sleep(10);
+                lock.writeLock().unlock();
+                return true;
+            }
+        });
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        assertStatistics(LockMode.READ, 1, 1, 1, 1);
+        assertEquals(2L, statistics.get(LockMode.READ).getWaitTimes().getCount());
+        // The writer reports its release after releasing, so may not have done so yet...
+        assertTrue(writerReleased.get());
+        assertStatistics(LockMode.WRITE, 1, 0, 0, 1);
+        assertTrue(statistics.get(LockMode.WRITE).getHoldTimes().getPercentile(100) >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testDowngradeAndPromote() throws Exception {
+        lock.writeLock().lock();
+        lock.downgradeToReadLock();
+        assertTrue(lock.tryPromoteToUpdateLock());
+        lock.updateLock().unlock();
+        assertStatistics(LockMode.WRITE, 1, 0, 0, 1);
+        assertStatistics(LockMode.READ, 1, 0, 0, 1);
+        assertStatistics(LockMode.UPDATE, 1, 0, 0, 2);
+    }
+
+    @Test
+    public void testConditionAwaitAndSignal() throws Exception {
+        awaitSignal(lock.updateLock());
+        // Each release on starting to await should be balanced by an acquisition on returning...
+        assertEquals(3L, statistics.get(LockMode.UPDATE).getAcquisitions());
+        assertEquals(3L, statistics.get(LockMode.UPDATE).getHoldTimes().getCount());
+
+        statistics = new LockStatistics();
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(statistics).build();
+        awaitSignal(lock.writeLock());
+        assertEquals(3L, statistics.get(LockMode.WRITE).getAcquisitions());
+        assertEquals(3L, statistics.get(LockMode.WRITE).getHoldTimes().getCount());
+        assertEquals(3L, statistics.get(LockMode.UPDATE).getHoldTimes().getCount());
+    }
+
+    void awaitSignal(final Lock conditionLock) throws Exception {
+        final Condition condition = conditionLock.newCondition();
+        conditionLock.lock();
+        try {
+            Future<Boolean> signalled = executor1.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    conditionLock.lock();
+                    try {
+                        condition.signal();
+                        return true;
+                    }
+                    finally {
+                        conditionLock.unlock();
+                    }
+                }
+            });
+            condition.await();
+            assertTrue(signalled.get());
+        }
+        finally {
+            conditionLock.unlock();
+        }
+    }
+
+    @Test
+    public void testMultipleMonitors() throws Exception {
+        LockStatistics other = new LockStatistics();
+        lock = ReentrantReadWriteUpdateLock.builder().monitor(statistics).monitor(other).build();
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        assertEquals(1L, statistics.get(LockMode.READ).getAcquisitions());
+        assertEquals(1L, other.get(LockMode.READ).getAcquisitions());
+    }
+
+    @Test
+    public void testCompositeLock() throws Exception {
+        final Lock lock1 = new ReentrantLock(), lock2 = new ReentrantLock();
+        CompositeLock compositeLock = new CompositeLock(statistics, lock1, lock2);
+        compositeLock.lock();
+        compositeLock.lock();
+        compositeLock.unlock();
+        compositeLock.unlock();
+        assertStatistics(LockMode.GROUP, 1, 0, 0, 1);
+        assertTrue(compositeLock.tryLock());
+        compositeLock.unlock();
+        compositeLock.lockInterruptibly();
+        compositeLock.unlock();
+        assertTrue(compositeLock.tryLock(1, TimeUnit.SECONDS));
+        compositeLock.unlock();
+        assertStatistics(LockMode.GROUP, 4, 0, 0, 4);
+
+        // An acquisition which blocks on a backing lock should be reported as contended...
+        lock2.lock();
+        Future<Boolean> blocked = executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return compositeLockTryLock(lock1, lock2, 10000);
+            }
+        });
+        Thread.sleep(50);
+        lock2.unlock();
+        assertTrue(blocked.get());
+        assertStatistics(LockMode.GROUP, 5, 1, 0, 5);
+
+        lock2.lock();
+        assertFalse(executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return compositeLockTryLock(lock1, lock2, 1);
+            }
+        }).get());
+        lock2.unlock();
+        assertStatistics(LockMode.GROUP, 5, 1, 1, 5);
+    }
+
+    @Test
+    public void testCompositeLockDoesNotBarge() throws Exception {
+        // Monitoring should not make the composite lock use untimed tryLock, which would barge ahead of waiters...
+        final AtomicInteger tryLocks = new AtomicInteger();
+        Lock fairLock = new ReentrantLock(true) {
+            @Override
+            public boolean tryLock() {
+                tryLocks.incrementAndGet();
+                return super.tryLock();
+            }
+        };
+        CompositeLock compositeLock = new CompositeLock(statistics, fairLock, new ReentrantLock(true));
+        compositeLock.lock();
+        compositeLock.unlock();
+        compositeLock.lockInterruptibly();
+        compositeLock.unlock();
+        assertEquals(0, tryLocks.get());
+        assertStatistics(LockMode.GROUP, 2, 0, 0, 2);
+    }
+
+    boolean compositeLockTryLock(Lock lock1, Lock lock2, long millis) throws InterruptedException {
+        CompositeLock compositeLock = new CompositeLock(statistics, lock1, lock2);
+        if (compositeLock.tryLock(millis, TimeUnit.MILLISECONDS)) {
+            compositeLock.unlock();
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        LockStatistics.Histogram histogram = new LockStatistics.Histogram();
+        assertEquals(0L, histogram.getPercentile(50));
+        histogram.record(0L);
+        histogram.record(1L);
+        histogram.record(5L);
+        histogram.record(1000L);
+        assertEquals(4L, histogram.getCount());
+        assertEquals(1L, histogram.getCount(0));
+        assertEquals(1L, histogram.getCount(1));
+        assertEquals(1L, histogram.getCount(3));
+        assertEquals(1L, histogram.getCount(10));
+        assertEquals(1L, LockStatistics.Histogram.getUpperBound(1));
+        assertEquals(7L, LockStatistics.Histogram.getUpperBound(3));
+        assertEquals(1023L, LockStatistics.Histogram.getUpperBound(10));
+        assertEquals(1L, histogram.getPercentile(50));
+        assertEquals(7L, histogram.getPercentile(75));
+        assertEquals(1023L, histogram.getPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1L, histogram.getCount(LockStatistics.Histogram.BUCKETS - 1));
+    }
+
+    void assertStatistics(LockMode mode, long acquisitions, long contended, long timeouts, long holds) {
+        LockStatistics.ModeStatistics modeStatistics = statistics.get(mode);
+        assertEquals(mode + " acquisitions", acquisitions, modeStatistics.getAcquisitions());
+        assertEquals(mode + " contended", contended, modeStatistics.getContendedAcquisitions());
+        assertEquals(mode + " timeouts", timeouts, modeStatistics.getTimeouts());
+        assertEquals(mode + " holds", holds, modeStatistics.getHoldTimes().getCount());
+    }
+}
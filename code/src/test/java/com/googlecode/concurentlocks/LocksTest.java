@@ -15,8 +15,15 @@
  */
 package com.googlecode.concurentlocks;
 
+import com.sun.management.ThreadMXBean;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -24,6 +31,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * @author Niall Gallagher
@@ -312,6 +320,374 @@ public class LocksTest {
         }
     }
 
+    @Test
+    public void testLockAll_ArrayRange() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock3 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock[] locks = {lock1, lock2, lock3};
+
+        Locks.lockAll(locks, 1, 2);
+        assertEquals(0, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        assertEquals(1, lock3.holdCount().value);
+
+        Locks.unlockAllInReverseOrder(locks, 1, 2);
+        assertEquals(0, lock2.holdCount().value);
+        assertEquals(0, lock3.holdCount().value);
+    }
+
+    @Test
+    public void testTryLockAll_ArrayRange_RollbackOnFailure() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock3 = new HoldCountLock(new ReentrantLock()) {
+            @Override
+            public boolean tryLock() {
+                return false;
+            }
+        };
+        HoldCountLock[] locks = {lock1, lock2, lock3};
+
+        assertTrue(Locks.tryLockAll(locks, 0, 2));
+        Locks.unlockAll(locks, 0, 2);
+        assertFalse(Locks.tryLockAll(locks, 0, 3));
+        assertFalse(Locks.tryLockAll(locks, 1, 0));
+        assertEquals(0, lock1.holdCount().value);
+        assertEquals(0, lock2.holdCount().value);
+        assertEquals(0, lock3.holdCount().value);
+    }
+
+    @Test
+    public void testUnlockAllInReverseOrder() throws Exception {
+        final StringBuilder unlockOrder = new StringBuilder();
+        Lock[] locks = new Lock[3];
+        for (int i = 0; i < locks.length; i++) {
+            final int index = i;
+            locks[i] = new ReentrantLock() {
+                @Override
+                public void unlock() {
+                    unlockOrder.append(index);
+                    super.unlock();
+                }
+            };
+        }
+        Locks.lockAll(locks);
+        Locks.unlockAllInReverseOrder(locks, 0, locks.length);
+        assertEquals("210", unlockOrder.toString());
+
+        Locks.lockAll(locks);
+        Locks.unlockAll(locks, 0, locks.length);
+        assertEquals("210012", unlockOrder.toString());
+    }
+
+    @Test
+    public void testArrayVariants_InvalidRange() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock[] locks = {lock1};
+        int[][] invalidRanges = {{-1, 1}, {0, -1}, {0, 2}, {1, 1}};
+        for (int[] range : invalidRanges) {
+            try {
+                Locks.lockAll(locks, range[0], range[1]);
+                fail("Should throw exception for range: " + range[0] + ", " + range[1]);
+            }
+            catch (IndexOutOfBoundsException expected) {
+                // Expected
+            }
+        }
+        // No lock should have been acquired before validating the range...
+        assertEquals(0, lock1.holdCount().value);
+    }
+
+    @Test
+    public void testArrayVariants_DoNotAllocate() throws Exception {
+        final Lock[] locks = {new ReentrantLock(), new ReentrantLock(), new ReentrantLock()};
+        assertDoesNotAllocate(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Locks.lockAll(locks, 0, locks.length);
+                Locks.unlockAllInReverseOrder(locks, 0, locks.length);
+                Locks.lockInterruptiblyAll(locks, 0, locks.length);
+                Locks.unlockAll(locks, 0, locks.length);
+                assertTrue(Locks.tryLockAll(locks, 0, locks.length));
+                Locks.unlockAllInReverseOrder(locks, 0, locks.length);
+                assertTrue(Locks.tryLockAll(1L, TimeUnit.SECONDS, locks, 0, locks.length));
+                Locks.unlockAllInReverseOrder(locks, 0, locks.length);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asserts that the given task does not allocate on the heap once warmed up, if the JVM can measure allocation by
+     * the current thread. Runs the task in a loop to tolerate occasional allocations by the JVM itself.
+     */
+    static void assertDoesNotAllocate(Callable<Void> task) throws Exception {
+        Object threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof ThreadMXBean);
+        ThreadMXBean allocationMXBean = (ThreadMXBean) threadMXBean;
+        assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported()
+                && allocationMXBean.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+        final int iterations = 10000;
+        for (int i = 0; i < iterations; i++) {
+            task.call();
+        }
+        long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            task.call();
+        }
+        long allocated = allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue("Allocated " + allocated + " bytes in " + iterations + " iterations", allocated < iterations);
+    }
+
+    @Test
+    public void testLockAllWithBackoff() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
+
+        Locks.lockAllWithBackoff(lock1, lock2);
+        assertEquals(1, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        Locks.unlockAll(lock1, lock2);
+
+        Locks.lockInterruptiblyAllWithBackoff(Arrays.asList(lock2, lock1));
+        assertEquals(1, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        Locks.unlockAll(lock1, lock2);
+
+        assertTrue(Locks.tryLockAllWithBackoff(1L, TimeUnit.MILLISECONDS, lock1, lock2));
+        assertEquals(1, lock1.holdCount().value);
+        assertEquals(1, lock2.holdCount().value);
+        Locks.unlockAll(lock1, lock2);
+
+        assertFalse(Locks.tryLockAllWithBackoff(1L, TimeUnit.MILLISECONDS, new Lock[0], 0, 0));
+    }
+
+    @Test
+    public void testLockAllWithBackoff_RollbackOnException() throws Exception {
+        HoldCountLock lock1 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock2 = new HoldCountLock(new ReentrantLock());
+        HoldCountLock lock3 = new HoldCountLock(new ReentrantLock()) {
+            @Override
+            public boolean tryLock() {
+                throw new RuntimeException();
+            }
+        };
+        Exception expected = null;
+        try {
+            Locks.lockAllWithBackoff(lock1, lock2, lock3);
+        }
+        catch (RuntimeException e) {
+            expected = e;
+        }
+        assertNotNull(expected);
+        assertEquals(0, lock1.holdCount().value);
+        assertEquals(0, lock2.holdCount().value);
+        assertEquals(0, lock3.holdCount().value);
+    }
+
+    @Test
+    public void testLockAllWithBackoff_ReleasesLocksWhileWaiting() throws Exception {
+        final ReentrantLock lock1 = new ReentrantLock();
+        final ReentrantLock lock2 = new ReentrantLock();
+        ExecutorService holder = Executors.newSingleThreadExecutor();
+        ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            // Hold lock2 in a background thread...
+            assertTrue(holder.submit(new ReentrantReadWriteUpdateLockTest.TryLockTask(lock2)).get());
+
+            Future<Boolean> acquiredAll = waiter.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    Locks.lockAllWithBackoff(lock1, lock2);
+                    boolean acquired = lock1.isHeldByCurrentThread() && lock2.isHeldByCurrentThread();
+                    Locks.unlockAll(lock1, lock2);
+                    return acquired;
+                }
+            });
+            // The waiter should block on lock2 without holding lock1...
+            while (!lock2.hasQueuedThreads()) {
+                Thread.sleep(1L);
+            }
+            assertFalse(lock1.isLocked());
+            assertFalse(acquiredAll.isDone());
+
+            assertTrue(holder.submit(new ReentrantReadWriteUpdateLockTest.UnlockTask(lock2)).get());
+            assertTrue(acquiredAll.get(10L, TimeUnit.SECONDS));
+        }
+        finally {
+            holder.shutdown();
+            waiter.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockAllWithBackoff_NoDeadlockWithOppositeOrders() throws Exception {
+        final ReentrantLock lock1 = new ReentrantLock();
+        final ReentrantLock lock2 = new ReentrantLock();
+        final ReentrantLock lock3 = new ReentrantLock();
+        final AtomicLong holders = new AtomicLong();
+        final AtomicBoolean exclusive = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Lock[] locks : new Lock[][] {{lock1, lock2, lock3}, {lock3, lock2, lock1}}) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 10000; i++) {
+                            Locks.lockAllWithBackoff(locks, 0, locks.length);
+                            if (holders.incrementAndGet() != 1L) {
+                                exclusive.set(false);
+                            }
+                            holders.decrementAndGet();
+                            Locks.unlockAll(locks, 0, locks.length);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(60L, TimeUnit.SECONDS);
+            }
+            assertTrue(exclusive.get());
+            assertFalse(lock1.isLocked() || lock2.isLocked() || lock3.isLocked());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTryLockAllWithBackoff_Timeout() throws Exception {
+        ReentrantLock lock1 = new ReentrantLock();
+        ReentrantLock lock2 = new ReentrantLock();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.TryLockTask(lock2)).get());
+            long startNanos = System.nanoTime();
+            assertFalse(Locks.tryLockAllWithBackoff(50L, TimeUnit.MILLISECONDS, lock1, lock2));
+            assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(50L));
+            assertFalse(lock1.isLocked());
+            assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.UnlockTask(lock2)).get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockInterruptiblyAllWithBackoff_Interrupted() throws Exception {
+        ReentrantLock lock1 = new ReentrantLock();
+        ReentrantLock lock2 = new ReentrantLock();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.TryLockTask(lock2)).get());
+            Thread.currentThread().interrupt();
+            Exception expected = null;
+            try {
+                Locks.lockInterruptiblyAllWithBackoff(lock1, lock2);
+            }
+            catch (InterruptedException e) {
+                expected = e;
+            }
+            assertNotNull(expected);
+            assertFalse(lock1.isLocked());
+            assertTrue(executor.submit(new ReentrantReadWriteUpdateLockTest.UnlockTask(lock2)).get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockAllInCanonicalOrder() throws Exception {
+        final StringBuilder lockOrder = new StringBuilder();
+        Lock[] locks = new Lock[5];
+        for (int i = 0; i < locks.length; i++) {
+            final int index = i;
+            locks[i] = new ReentrantLock() {
+                @Override
+                public void lock() {
+                    lockOrder.append(index);
+                    super.lock();
+                }
+                @Override
+                public void lockInterruptibly() throws InterruptedException {
+                    lockOrder.append(index);
+                    super.lockInterruptibly();
+                }
+                @Override
+                public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+                    lockOrder.append(index);
+                    return super.tryLock(timeout, unit);
+                }
+            };
+        }
+        Lock[] sorted = locks.clone();
+        Locks.sortCanonically(sorted, 0, sorted.length);
+        StringBuilder expectedOrder = new StringBuilder();
+        for (Lock lock : sorted) {
+            expectedOrder.append(Arrays.asList(locks).indexOf(lock));
+        }
+
+        Lock[] reversed = {locks[4], locks[3], locks[2], locks[1], locks[0]};
+        Locks.lockAllInCanonicalOrder(reversed);
+        Locks.unlockAll(reversed);
+        assertEquals(expectedOrder.toString(), lockOrder.toString());
+
+        lockOrder.setLength(0);
+        Locks.lockInterruptiblyAllInCanonicalOrder(Arrays.asList(locks));
+        Locks.unlockAll(locks);
+        assertEquals(expectedOrder.toString(), lockOrder.toString());
+
+        lockOrder.setLength(0);
+        assertTrue(Locks.tryLockAllInCanonicalOrder(1L, TimeUnit.SECONDS, reversed));
+        Locks.unlockAll(locks);
+        assertEquals(expectedOrder.toString(), lockOrder.toString());
+
+        // The array supplied should not be reordered...
+        assertSame(locks[4], reversed[0]);
+    }
+
+    @Test
+    public void testCanonicalOrder() throws Exception {
+        Comparator<Object> order = Locks.canonicalOrder();
+        Lock lock1 = new ReentrantLock();
+        Lock lock2 = new ReentrantLock();
+        assertEquals(0, order.compare(lock1, lock1));
+        assertEquals(-order.compare(lock1, lock2), order.compare(lock2, lock1));
+        assertTrue(order.compare(lock1, lock2) != 0);
+    }
+
+    @Test
+    public void testCanonicalOrder_TiedHashCodes() throws Exception {
+        // Simulate objects having the same identity hash code...
+        int hash = 42;
+        Object object1 = new Object(), object2 = new Object(), object3 = new Object();
+        assertEquals(-1, Locks.compareTied(hash, object2, object1));
+        assertEquals(1, Locks.compareTied(hash, object1, object2));
+        assertEquals(-1, Locks.compareTied(hash, object1, object3));
+        assertEquals(1, Locks.compareTied(hash, object3, object2));
+        assertEquals(-1, Locks.compareTied(hash, object2, object3));
+        Locks.TIED_OBJECTS.remove(hash);
+    }
+
+    @Test
+    public void testCanonicalOrder_TiedObjectsRemovedWhenCollected() throws Exception {
+        int hash = 43;
+        Locks.compareTied(hash, new Object(), new Object());
+        assertTrue(Locks.TIED_OBJECTS.containsKey(hash));
+        // Once both objects have been garbage collected, the list for their hash code should be removed...
+        for (int i = 0; i < 100 && Locks.TIED_OBJECTS.containsKey(hash); i++) {
+            System.gc();
+            Thread.sleep(10);
+            Locks.removeCollectedTiedObjects();
+        }
+        assertFalse(Locks.TIED_OBJECTS.containsKey(hash));
+    }
+
     @Test
     public void testConstructor() {
         assertNotNull(new Locks());
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLockTest.TryLockTask;
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLockTest.UnlockTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class ReadWriteUpdateLockTableTest {
+
+    ExecutorService executor1, executor2;
+    ReadWriteUpdateLockTable<Long> table;
+
+    @Before
+    public void setUp() throws Exception {
+        executor1 = Executors.newSingleThreadExecutor();
+        executor2 = Executors.newSingleThreadExecutor();
+        table = new ReadWriteUpdateLockTable<Long>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor1.shutdown();
+        executor2.shutdown();
+    }
+
+    @Test
+    public void testLocksCreatedAndRemovedOnDemand() throws Exception {
+        assertEquals(0, table.size());
+        Lock readLock = table.readLock(1L);
+        assertEquals(0, table.size());
+        readLock.lock();
+        readLock.lock();
+        assertEquals(1, table.size());
+        ReentrantReadWriteUpdateLock lock = table.entries.get(1L);
+        assertEquals(2, lock.getReadHoldCount());
+        readLock.unlock();
+        assertSame(lock, table.entries.get(1L));
+        readLock.unlock();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testUpdateLocksOfDifferentKeysAreIndependent() throws Exception {
+        assertTrue(executor1.submit(new TryLockTask(table.updateLock(1L))).get());
+        assertTrue(table.updateLock(2L).tryLock());
+        assertTrue(table.writeLock(2L).tryLock());
+        assertFalse(table.updateLock(1L).tryLock());
+        assertTrue(table.readLock(1L).tryLock());
+        table.readLock(1L).unlock();
+        table.writeLock(2L).unlock();
+        table.updateLock(2L).unlock();
+        assertEquals(1, table.size());
+        assertTrue(executor1.submit(new UnlockTask(table.updateLock(1L))).get());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testUpgradeUsesSameLock() throws Exception {
+        LockHandle update = table.acquireUpdateLock(1L);
+        assertTrue(executor1.submit(new TryLockTask(table.readLock(1L))).get());
+
+        // Upgrading should wait for the reader in thread 1...
+        assertFalse(table.writeLock(1L).tryLock());
+        assertTrue(executor1.submit(new UnlockTask(table.readLock(1L))).get());
+        LockHandle write = table.acquireWriteLock(1L);
+        assertTrue(table.entries.get(1L).isWriteLockedByCurrentThread());
+        assertFalse(executor1.submit(new TryLockTask(table.readLock(1L))).get());
+        write.close();
+        assertTrue(table.entries.get(1L).isUpdateLockedByCurrentThread());
+        update.close();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testWaitingThreadRetainsLock() throws Exception {
+        assertTrue(executor1.submit(new TryLockTask(table.writeLock(1L))).get());
+        Future<Boolean> waiter = executor2.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                table.readLock(1L).lock();
+                table.readLock(1L).unlock();
+                return true;
+            }
+        });
+        // Wait for the waiter to start waiting...
+        ReentrantReadWriteUpdateLock lock = table.entries.get(1L);
+        while (!lock.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+        assertTrue(executor1.submit(new UnlockTask(table.writeLock(1L))).get());
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testFailedAcquisitionReleasesLock() throws Exception {
+        assertTrue(executor1.submit(new TryLockTask(table.writeLock(1L))).get());
+        assertFalse(table.readLock(1L).tryLock());
+        assertFalse(table.readLock(1L).tryLock(1, TimeUnit.MILLISECONDS));
+        assertEquals(1, table.entries.get(1L).references);
+        assertTrue(executor1.submit(new UnlockTask(table.writeLock(1L))).get());
+        assertEquals(0, table.size());
+
+        // A prevented acquisition should also release the lock...
+        table.readLock(1L).lock();
+        try {
+            table.updateLock(1L).lock();
+            fail("Should throw IllegalStateException");
+        }
+        catch (IllegalStateException expected) {
+        }
+        assertEquals(1, table.entries.get(1L).references);
+        table.readLock(1L).unlock();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testUnlockWithoutHoldingLock() throws Exception {
+        try {
+            table.readLock(1L).unlock();
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        assertTrue(executor1.submit(new TryLockTask(table.updateLock(1L))).get());
+        try {
+            table.updateLock(1L).unlock();
+            fail("Should throw IllegalMonitorStateException");
+        }
+        catch (IllegalMonitorStateException expected) {
+        }
+        assertEquals(1, table.size());
+        assertTrue(executor1.submit(new UnlockTask(table.updateLock(1L))).get());
+        assertEquals(0, table.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() throws Exception {
+        table.readLock(null).lock();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testConditionsNotSupported() throws Exception {
+        table.writeLock(1L).newCondition();
+    }
+
+    @Test
+    public void testConcurrentWritesToFewKeys() throws Exception {
+        final int threads = 4, keys = 3, iterations = 20000;
+        final long[] values = new long[keys];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < iterations; i++) {
+                            int key = ThreadLocalRandom.current().nextInt(keys);
+                            LockHandle write = table.acquireWriteLock((long) key);
+                            try {
+                                values[key]++;
+                            }
+                            finally {
+                                write.close();
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(60, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        // Lost updates would indicate that two threads held different locks for the same key...
+        assertEquals(threads * iterations, total);
+        assertEquals(0, table.size());
+    }
+}
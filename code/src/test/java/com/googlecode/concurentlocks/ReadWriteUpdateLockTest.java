@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the default methods of {@link ReadWriteUpdateLock}, via an implementation which provides only the three
+ * locks, as third-party implementations written against earlier versions of the interface do.
+ *
+ * @author Niall Gallagher
+ */
+public class ReadWriteUpdateLockTest {
+
+    final ReentrantReadWriteUpdateLock backingLock = new ReentrantReadWriteUpdateLock();
+    final ReadWriteUpdateLock readWriteUpdateLock = new MinimalReadWriteUpdateLock(backingLock);
+
+    @Test
+    public void testOptimisticReadNotSupported() throws Exception {
+        long stamp = readWriteUpdateLock.tryOptimisticRead();
+        assertEquals(0L, stamp);
+        assertFalse(readWriteUpdateLock.validate(stamp));
+        assertFalse(readWriteUpdateLock.validate(backingLock.tryOptimisticRead()));
+    }
+
+    @Test
+    public void testLockHandles() throws Exception {
+        try (LockHandle read = readWriteUpdateLock.acquireReadLock()) {
+            assertEquals(1, backingLock.getReadHoldCount());
+        }
+        assertEquals(0, backingLock.getReadHoldCount());
+        try (LockHandle update = readWriteUpdateLock.acquireUpdateLock()) {
+            assertEquals(1, backingLock.getUpdateHoldCount());
+            try (LockHandle write = readWriteUpdateLock.acquireWriteLock()) {
+                assertEquals(1, backingLock.getWriteHoldCount());
+            }
+            // Closing the write handle should downgrade to the update lock...
+            assertEquals(0, backingLock.getWriteHoldCount());
+            assertEquals(1, backingLock.getUpdateHoldCount());
+        }
+        assertEquals(0, backingLock.getUpdateHoldCount());
+    }
+
+    @Test
+    public void testReadUpdateWrite() throws Exception {
+        assertEquals("read", readWriteUpdateLock.read(new Supplier<String>() {
+            @Override
+            public String get() {
+                assertEquals(1, backingLock.getReadHoldCount());
+                return "read";
+            }
+        }));
+        assertEquals("argument", readWriteUpdateLock.read("argument", new Function<String, String>() {
+            @Override
+            public String apply(String argument) {
+                assertEquals(1, backingLock.getReadHoldCount());
+                return argument;
+            }
+        }));
+        assertEquals(0, backingLock.getReadHoldCount());
+
+        assertEquals("update", readWriteUpdateLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                assertEquals(1, backingLock.getUpdateHoldCount());
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    assertEquals(1, backingLock.getWriteHoldCount());
+                }
+                assertEquals(0, backingLock.getWriteHoldCount());
+                return "update";
+            }
+        }));
+        assertEquals("argument", readWriteUpdateLock.update("argument", new BiFunction<String, Upgrader, String>() {
+            @Override
+            public String apply(String argument, Upgrader upgrader) {
+                assertEquals(1, backingLock.getUpdateHoldCount());
+                return argument;
+            }
+        }));
+        assertEquals(0, backingLock.getUpdateHoldCount());
+
+        final AtomicInteger writes = new AtomicInteger();
+        readWriteUpdateLock.write(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, backingLock.getWriteHoldCount());
+                writes.incrementAndGet();
+            }
+        });
+        readWriteUpdateLock.write(writes, new Consumer<AtomicInteger>() {
+            @Override
+            public void accept(AtomicInteger argument) {
+                assertEquals(1, backingLock.getWriteHoldCount());
+                argument.incrementAndGet();
+            }
+        });
+        assertEquals(2, writes.get());
+        assertEquals(0, backingLock.getWriteHoldCount());
+    }
+
+    /**
+     * Implements only the methods of the interface which have no default implementation.
+     */
+    static class MinimalReadWriteUpdateLock implements ReadWriteUpdateLock {
+        final ReadWriteUpdateLock backingLock;
+
+        MinimalReadWriteUpdateLock(ReadWriteUpdateLock backingLock) {
+            this.backingLock = backingLock;
+        }
+
+        @Override
+        public Lock readLock() {
+            return backingLock.readLock();
+        }
+
+        @Override
+        public Lock updateLock() {
+            return backingLock.updateLock();
+        }
+
+        @Override
+        public Lock writeLock() {
+            return backingLock.writeLock();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs all tests in {@link ReentrantReadWriteUpdateLockTest} against a lock which registers readers in striped slots.
+ *
+ * @author Niall Gallagher
+ */
+public class ReentrantReadWriteUpdateLockScalableReadsTest extends ReentrantReadWriteUpdateLockTest {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        reentrantReadWriteUpdateLock = new ReentrantReadWriteUpdateLock(true);
+    }
+
+    @Test
+    public void testReaderBiasRevokedByUpgrade() throws Exception {
+        ReentrantReadWriteUpdateLock.ReaderSlots readerSlots = reentrantReadWriteUpdateLock.sync.readerSlots;
+        assertEquals(ReentrantReadWriteUpdateLock.ReaderSlots.BIASED, readerSlots.bias.get());
+
+        // Acquire the read lock in thread 1, should register in a slot...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertFalse(readerSlots.isEmpty());
+
+        // Try to acquire the write lock in foreground thread, should fail and restore the bias it revoked...
+        assertFalse(reentrantReadWriteUpdateLock.writeLock().tryLock());
+        assertEquals(ReentrantReadWriteUpdateLock.ReaderSlots.BIASED, readerSlots.bias.get());
+        assertFalse(reentrantReadWriteUpdateLock.writeLock().tryLock(1, TimeUnit.MILLISECONDS));
+        assertEquals(ReentrantReadWriteUpdateLock.ReaderSlots.BIASED, readerSlots.bias.get());
+
+        // Release the read lock in thread 1, write lock should then be available...
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(reentrantReadWriteUpdateLock.writeLock().tryLock());
+        assertEquals(ReentrantReadWriteUpdateLock.ReaderSlots.UNBIASED, readerSlots.bias.get());
+        reentrantReadWriteUpdateLock.writeLock().unlock();
+
+        // Readers should register in the shared reader count until the bias is restored...
+        readerSlots.inhibitUntilNanos = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(readerSlots.isEmpty());
+        assertTrue(reentrantReadWriteUpdateLock.sync.hasReaders());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Once the inhibition period expires, the next reader should restore the bias...
+        readerSlots.inhibitUntilNanos = System.nanoTime();
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertEquals(ReentrantReadWriteUpdateLock.ReaderSlots.BIASED, readerSlots.bias.get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+    }
+}
@@ -17,8 +17,15 @@ package com.googlecode.concurentlocks;
 
 import org.junit.*;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
 
@@ -255,6 +262,30 @@ public class ReentrantReadWriteUpdateLockTest {
         assertEquals(0, hc3);
     }
 
+    @Test
+    public void testReadLockHoldCount_InterleavedThreads() throws Exception {
+        final ReentrantReadWriteUpdateLock.ReadLock readLock = (ReentrantReadWriteUpdateLock.ReadLock)reentrantReadWriteUpdateLock.readLock();
+        Callable<Integer> lockAndGetHoldCount = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                readLock.lock();
+                return readLock.holdCount().value;
+            }
+        };
+        readLock.lock();
+        readLock.lock();
+        // Thread 1 now becomes the cached holder...
+        assertEquals(Integer.valueOf(1), executor1.submit(lockAndGetHoldCount).get());
+        assertEquals(2, readLock.holdCount().value);
+        assertEquals(Integer.valueOf(2), executor1.submit(lockAndGetHoldCount).get());
+        readLock.unlock();
+        readLock.unlock();
+        assertEquals(0, readLock.holdCount().value);
+        assertTrue(executor1.submit(new UnlockTask(readLock)).get());
+        assertTrue(executor1.submit(new UnlockTask(readLock)).get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+    }
+
     @Test
     public void testUpdateLockHoldCount() throws Exception {
         reentrantReadWriteUpdateLock.updateLock().lock();
@@ -354,23 +385,1006 @@ public class ReentrantReadWriteUpdateLockTest {
         reentrantReadWriteUpdateLock.writeLock().unlock();
     }
 
+    @Test
+    public void testWriteLockTryLockAfterPreviousWrite() throws Exception {
+        // Releasing the write lock advances the write version, which should not prevent acquiring it again...
+        for (int i = 0; i < 3; i++) {
+            assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+            assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+            assertTrue(executor2.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+            assertTrue(executor2.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        }
+    }
+
+    @Test
+    public void testUpgradeWaitsForReadersAndBlocksNewReaders() throws Exception {
+        // Acquire the read lock in thread 1...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Acquire the update lock in thread 2, and start upgrading to the write lock...
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+        Future<Boolean> upgrade = executor2.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                updateLock.lock();
+                writeLock.lock();
+                writeLock.unlock();
+                updateLock.unlock();
+                return true;
+            }
+        });
+        while (!reentrantReadWriteUpdateLock.sync.isPendingWrite()) {
+            Thread.sleep(1);
+        }
+        assertFalse(upgrade.isDone());
+
+        // Try to acquire read lock in foreground thread while upgrade is pending, should fail...
+        assertFalse(reentrantReadWriteUpdateLock.readLock().tryLock());
+
+        // Reentrant read lock acquisition in thread 1 should still succeed...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Release the read lock in thread 1, upgrade should then complete...
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(upgrade.get(10, TimeUnit.SECONDS));
+        assertTrue(reentrantReadWriteUpdateLock.readLock().tryLock());
+        reentrantReadWriteUpdateLock.readLock().unlock();
+    }
+
+    @Test
+    public void testTimedOutUpgradeReleasesUpdateLock() throws Exception {
+        // Acquire the read lock in thread 1...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Try to acquire write lock in foreground thread, waiting for a short time, should fail...
+        assertFalse(reentrantReadWriteUpdateLock.writeLock().tryLock(1, TimeUnit.MILLISECONDS));
+        int hc1 = ((ReentrantReadWriteUpdateLock.UpdateLock)reentrantReadWriteUpdateLock.updateLock()).holdCount().value;
+        assertEquals(0, hc1);
+
+        // Update lock should be available to thread 2, and read lock available to foreground thread...
+        assertTrue(executor2.submit(new TryLockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+        assertTrue(reentrantReadWriteUpdateLock.readLock().tryLock());
+        reentrantReadWriteUpdateLock.readLock().unlock();
+
+        assertTrue(executor2.submit(new UnlockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+    }
+
+    @Test
+    public void testNonFairPolicyAdmitsReadersWhileUpgradePending() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder()
+                .readWritePolicy(ReentrantReadWriteUpdateLock.ReadWritePolicy.NON_FAIR));
+        // Acquire the read lock in thread 1...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Start upgrading to the write lock in thread 2...
+        Future<Boolean> upgrade = executor2.submit(new LockUnlockTask(reentrantReadWriteUpdateLock.writeLock()));
+        while (!reentrantReadWriteUpdateLock.sync.isPendingWrite()) {
+            Thread.sleep(1);
+        }
+
+        // Read lock should still be available to foreground thread...
+        assertTrue(reentrantReadWriteUpdateLock.readLock().tryLock());
+        reentrantReadWriteUpdateLock.readLock().unlock();
+        assertFalse(upgrade.isDone());
+
+        // Release the read lock in thread 1, upgrade should then complete...
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(upgrade.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPhaseFairPolicyAdmitsQueuedReadersBeforeNextUpgrade() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder()
+                .readWritePolicy(ReentrantReadWriteUpdateLock.ReadWritePolicy.PHASE_FAIR));
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+
+        // Acquire the write lock in thread 1...
+        assertTrue(executor1.submit(new TryLockTask(updateLock)).get());
+        assertTrue(executor1.submit(new TryLockTask(writeLock)).get());
+
+        // Wait for the read lock in thread 2...
+        Future<Boolean> read = executor2.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                reentrantReadWriteUpdateLock.readLock().lock();
+                return true;
+            }
+        });
+        while (!reentrantReadWriteUpdateLock.sync.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+
+        // Release and immediately reacquire the write lock in thread 1, reader should be admitted in between...
+        Future<Boolean> rewrite = executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                writeLock.unlock();
+                writeLock.lock();
+                return true;
+            }
+        });
+        assertTrue(read.get(10, TimeUnit.SECONDS));
+        assertFalse(rewrite.isDone());
+
+        // Release the read lock in thread 2, write lock should then be reacquired...
+        assertTrue(executor2.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(rewrite.get(10, TimeUnit.SECONDS));
+        assertTrue(executor1.submit(new UnlockTask(writeLock)).get());
+        assertTrue(executor1.submit(new UnlockTask(updateLock)).get());
+    }
+
+    @Test
+    public void testFairUpdatePolicy() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder()
+                .updatePolicy(ReentrantReadWriteUpdateLock.UpdatePolicy.FAIR));
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock();
+
+        // Acquire the update lock in thread 1, and wait for it in thread 2...
+        assertTrue(executor1.submit(new TryLockTask(updateLock)).get());
+        Future<Boolean> update = executor2.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                updateLock.lock();
+                return true;
+            }
+        });
+        while (!reentrantReadWriteUpdateLock.sync.updateQueue.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+
+        // Release the update lock in thread 1, foreground thread should not be able to acquire it ahead of thread 2...
+        assertTrue(executor1.submit(new UnlockTask(updateLock)).get());
+        assertFalse(updateLock.tryLock(0, TimeUnit.MILLISECONDS));
+        assertFalse(reentrantReadWriteUpdateLock.writeLock().tryLock(0, TimeUnit.MILLISECONDS));
+        assertTrue(update.get(10, TimeUnit.SECONDS));
+        assertTrue(executor2.submit(new UnlockTask(updateLock)).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderRejectsNullPolicy() throws Exception {
+        ReentrantReadWriteUpdateLock.builder().readWritePolicy(null);
+    }
+
+    @Test
+    public void testDowngradeWriteLockToReadLock() throws Exception {
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+
+        long stamp = reentrantReadWriteUpdateLock.tryOptimisticRead();
+
+        // Acquire the update lock, and the write lock within it, in thread 1...
+        assertTrue(executor1.submit(new TryLockTask(updateLock)).get());
+        assertTrue(executor1.submit(new TryLockTask(writeLock)).get());
+
+        // Wait for the update lock in thread 2...
+        Future<Boolean> update = executor2.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                updateLock.lock();
+                return true;
+            }
+        });
+        while (!reentrantReadWriteUpdateLock.sync.updateQueue.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+
+        // Downgrade to the read lock in thread 1, thread 2 should then acquire the update lock...
+        assertTrue(executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                reentrantReadWriteUpdateLock.downgradeToReadLock();
+                return true;
+            }
+        }).get());
+        assertTrue(update.get(10, TimeUnit.SECONDS));
+        assertFalse(reentrantReadWriteUpdateLock.validate(stamp));
+
+        // Other readers should be admitted, but thread 2 should not be able to upgrade while thread 1 reads...
+        assertTrue(reentrantReadWriteUpdateLock.readLock().tryLock());
+        reentrantReadWriteUpdateLock.readLock().unlock();
+        assertFalse(executor2.submit(new TryLockTask(writeLock)).get());
+
+        // Release the read lock in thread 1, thread 2 should then be able to upgrade...
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(executor2.submit(new TryLockTask(writeLock)).get());
+        assertTrue(executor2.submit(new UnlockTask(writeLock)).get());
+        assertTrue(executor2.submit(new UnlockTask(updateLock)).get());
+    }
+
+    @Test
+    public void testDowngradeUpdateLockToReadLock() throws Exception {
+        reentrantReadWriteUpdateLock.updateLock().lock();
+        reentrantReadWriteUpdateLock.updateLock().lock();
+        reentrantReadWriteUpdateLock.downgradeToReadLock();
+        assertEquals(1, reentrantReadWriteUpdateLock.readLock.holdCount().value);
+
+        // Update lock should be available to thread 1, but not the write lock...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+        assertFalse(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+
+        reentrantReadWriteUpdateLock.readLock().unlock();
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testDowngradeWithoutUpdateLock() throws Exception {
+        reentrantReadWriteUpdateLock.downgradeToReadLock();
+    }
+
+    @Test
+    public void testPromoteReadLockToUpdateLock() throws Exception {
+        ReentrantReadWriteUpdateLock.UpdateLock updateLock = (ReentrantReadWriteUpdateLock.UpdateLock)reentrantReadWriteUpdateLock.updateLock();
+        reentrantReadWriteUpdateLock.readLock().lock();
+        reentrantReadWriteUpdateLock.readLock().lock();
+
+        // Promotion should fail while thread 1 holds the update lock...
+        assertTrue(executor1.submit(new TryLockTask(updateLock)).get());
+        assertFalse(reentrantReadWriteUpdateLock.tryPromoteToUpdateLock());
+        assertEquals(2, reentrantReadWriteUpdateLock.readLock.holdCount().value);
+        assertTrue(executor1.submit(new UnlockTask(updateLock)).get());
+
+        // Promotion should then succeed, replacing both read holds with one update hold...
+        assertTrue(reentrantReadWriteUpdateLock.tryPromoteToUpdateLock());
+        assertEquals(0, reentrantReadWriteUpdateLock.readLock.holdCount().value);
+        assertEquals(1, updateLock.holdCount().value);
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+        assertFalse(executor1.submit(new TryLockTask(updateLock)).get());
+
+        // Should be able to upgrade to the write lock...
+        assertTrue(reentrantReadWriteUpdateLock.writeLock().tryLock());
+        reentrantReadWriteUpdateLock.writeLock().unlock();
+        updateLock.unlock();
+        assertTrue(executor1.submit(new TryLockTask(updateLock)).get());
+        assertTrue(executor1.submit(new UnlockTask(updateLock)).get());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testPromoteWithoutReadLock() throws Exception {
+        reentrantReadWriteUpdateLock.tryPromoteToUpdateLock();
+    }
+
+    @Test
+    public void testUncheckedLock() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder().checked(false));
+        final Lock readLock = reentrantReadWriteUpdateLock.readLock(), updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+
+        // Readers should share the lock with each other and with the update lock...
+        assertTrue(executor1.submit(new TryLockTask(readLock)).get());
+        assertTrue(readLock.tryLock());
+        assertTrue(updateLock.tryLock());
+        readLock.unlock();
+
+        // Upgrading should wait for the reader in thread 1...
+        assertFalse(writeLock.tryLock());
+        assertTrue(executor1.submit(new UnlockTask(readLock)).get());
+        assertTrue(writeLock.tryLock());
+        assertTrue(writeLock.tryLock());
+        assertFalse(executor1.submit(new TryLockTask(readLock)).get());
+
+        // Downgrading should exchange the update and write locks for the read lock...
+        reentrantReadWriteUpdateLock.downgradeToReadLock();
+        assertTrue(executor1.submit(new TryLockTask(readLock)).get());
+        assertTrue(executor2.submit(new TryLockTask(updateLock)).get());
+        assertFalse(reentrantReadWriteUpdateLock.tryPromoteToUpdateLock());
+        assertTrue(executor2.submit(new UnlockTask(updateLock)).get());
+        assertTrue(reentrantReadWriteUpdateLock.tryPromoteToUpdateLock());
+        updateLock.unlock();
+        assertTrue(executor1.submit(new UnlockTask(readLock)).get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+        assertFalse(reentrantReadWriteUpdateLock.isUpdateLocked());
+
+        // The read lock should not have looked up a hold count...
+        assertNull(reentrantReadWriteUpdateLock.readLock.cachedHoldCount);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUncheckedLockDoesNotTrackReadHolds() throws Exception {
+        newLock(ReentrantReadWriteUpdateLock.builder().checked(false)).getReadHoldCount();
+    }
+
+    @Test
+    public void testUncheckedLockCountsReadAcquisitions() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder().checked(false));
+        Lock readLock = reentrantReadWriteUpdateLock.readLock();
+        // Each acquisition should be counted, as holds are not tracked per thread...
+        readLock.lock();
+        readLock.lock();
+        assertTrue(executor1.submit(new TryLockTask(readLock)).get());
+        assertEquals(3, reentrantReadWriteUpdateLock.getReadLockCount());
+        assertTrue(executor1.submit(new UnlockTask(readLock)).get());
+        readLock.unlock();
+        readLock.unlock();
+        assertEquals(0, reentrantReadWriteUpdateLock.getReadLockCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUncheckedLockCannotBeMonitored() throws Exception {
+        newLock(ReentrantReadWriteUpdateLock.builder().checked(false).monitor(new LockStatistics()));
+    }
+
+    @Test
+    public void testHoldTimer() throws Exception {
+        ReentrantReadWriteUpdateLock.HoldTimer holdTimer = new ReentrantReadWriteUpdateLock.HoldTimer(true);
+        assertEquals(ReentrantReadWriteUpdateLock.HoldTimer.MIN_SPIN_NANOS, holdTimer.spinNanos());
+
+        // Long holds should stop threads spinning...
+        for (int i = 0; i < 10; i++) {
+            holdTimer.record(1000000L);
+        }
+        assertEquals(0L, holdTimer.spinNanos());
+
+        // Short holds should let threads spin for around twice the average hold again...
+        for (int i = 0; i < 50; i++) {
+            holdTimer.record(2000L);
+        }
+        assertTrue(holdTimer.spinNanos() >= 4000L && holdTimer.spinNanos() <= 4100L);
+
+        // Only one in SAMPLE_INTERVAL holds should be timed...
+        for (int i = 1; i < ReentrantReadWriteUpdateLock.HoldTimer.SAMPLE_INTERVAL; i++) {
+            holdTimer.started();
+            assertFalse(holdTimer.sampling);
+            holdTimer.stopped();
+        }
+        holdTimer.started();
+        assertTrue(holdTimer.sampling);
+        holdTimer.stopped();
+        assertFalse(holdTimer.sampling);
+
+        assertEquals(0L, new ReentrantReadWriteUpdateLock.HoldTimer(false).spinNanos());
+    }
+
+    @Test
+    public void testAdaptiveSpinning() throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder().adaptiveSpinning(true));
+        final Lock readLock = reentrantReadWriteUpdateLock.readLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+        Callable<Boolean> readTask = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                for (int i = 0; i < 10000; i++) {
+                    readLock.lock();
+                    readLock.unlock();
+                }
+                return true;
+            }
+        };
+        Callable<Boolean> writeTask = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                for (int i = 0; i < 10000; i++) {
+                    writeLock.lock();
+                    writeLock.unlock();
+                }
+                return true;
+            }
+        };
+        // Contend for short holds, so that threads spin...
+        Future<Boolean> reads = executor1.submit(readTask), writes = executor2.submit(writeTask);
+        assertTrue(reads.get(30, TimeUnit.SECONDS));
+        assertTrue(writes.get(30, TimeUnit.SECONDS));
+        assertTrue(reentrantReadWriteUpdateLock.sync.writeHoldTimer.enabled);
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+    }
+
+    @Test
+    public void testAdaptiveSpinningSpinsBeforeParking() throws Exception {
+        // A reader blocked by the write lock should spin once before parking, only if adaptive spinning is enabled...
+        assertEquals(1L, spinsOfBlockedReader(true));
+        assertEquals(0L, spinsOfBlockedReader(false));
+    }
+
+    long spinsOfBlockedReader(boolean adaptiveSpinning) throws Exception {
+        reentrantReadWriteUpdateLock = newLock(ReentrantReadWriteUpdateLock.builder().adaptiveSpinning(adaptiveSpinning));
+        reentrantReadWriteUpdateLock.writeLock().lock();
+        Future<Boolean> reader = executor1.submit(new LockUnlockTask(reentrantReadWriteUpdateLock.readLock()));
+        while (!reentrantReadWriteUpdateLock.sync.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+        long spins = reentrantReadWriteUpdateLock.sync.writeHoldTimer.spins.get();
+        reentrantReadWriteUpdateLock.writeLock().unlock();
+        assertTrue(reader.get());
+        return spins;
+    }
+
+    @Test
+    public void testReadHoldCountsReusedAcrossLocks() throws Exception {
+        // Acquiring and releasing the read locks of many locks in turn should reuse a single hold count...
+        int length = ReentrantReadWriteUpdateLock.HoldCountLock.threadHoldCounts.get().length;
+        ReentrantReadWriteUpdateLock.HoldCountLock.HoldCount first = null;
+        for (int i = 0; i < 1000; i++) {
+            ReentrantReadWriteUpdateLock.ReadLock readLock = new ReentrantReadWriteUpdateLock().readLock;
+            readLock.lock();
+            readLock.lock();
+            if (first == null) {
+                first = readLock.holdCount();
+            }
+            assertSame(first, readLock.holdCount());
+            assertEquals(2, first.value);
+            readLock.unlock();
+            readLock.unlock();
+            assertNull(first.lock);
+        }
+        assertEquals(length, ReentrantReadWriteUpdateLock.HoldCountLock.threadHoldCounts.get().length);
+
+        // Holding many read locks at the same time should count holds separately...
+        ReentrantReadWriteUpdateLock.ReadLock[] readLocks = new ReentrantReadWriteUpdateLock.ReadLock[10];
+        for (int i = 0; i < readLocks.length; i++) {
+            readLocks[i] = new ReentrantReadWriteUpdateLock().readLock;
+            for (int j = 0; j <= i; j++) {
+                readLocks[i].lock();
+            }
+        }
+        for (int i = 0; i < readLocks.length; i++) {
+            assertEquals(i + 1, readLocks[i].holdCount().value);
+        }
+        for (int i = 0; i < readLocks.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                readLocks[i].unlock();
+            }
+            assertFalse(readLocks[i].isHeldByCurrentThread());
+        }
+    }
+
+    @Test
+    public void testManyBlockedReaders() throws Exception {
+        assertManyBlockedReaders(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Test
+    public void testManyBlockedVirtualReaders() throws Exception {
+        Method ofVirtual = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+        }
+        catch (NoSuchMethodException e) {
+            // Virtual threads are not available on this JVM...
+        }
+        Assume.assumeNotNull(ofVirtual);
+        // Look up the virtual thread factory reflectively, as the build targets a Java version without it...
+        Object builder = ofVirtual.invoke(null);
+        ThreadFactory threadFactory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        assertManyBlockedReaders(threadFactory);
+    }
+
+    void assertManyBlockedReaders(ThreadFactory threadFactory) throws Exception {
+        final Lock readLock = reentrantReadWriteUpdateLock.readLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+        final int readers = 200;
+        final CountDownLatch started = new CountDownLatch(readers), finished = new CountDownLatch(readers);
+        final AtomicInteger failures = new AtomicInteger();
+        writeLock.lock();
+        for (int i = 0; i < readers; i++) {
+            threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    readLock.lock();
+                    readLock.lock();
+                    // Each reader should see only its own holds, although the readers share the lock...
+                    if (reentrantReadWriteUpdateLock.readLock.getHoldCount() != 2) {
+                        failures.incrementAndGet();
+                    }
+                    readLock.unlock();
+                    readLock.unlock();
+                    if (reentrantReadWriteUpdateLock.readLock.isHeldByCurrentThread()) {
+                        failures.incrementAndGet();
+                    }
+                    finished.countDown();
+                }
+            }).start();
+        }
+        assertTrue(started.await(30, TimeUnit.SECONDS));
+        assertFalse(finished.await(10, TimeUnit.MILLISECONDS));
+        writeLock.unlock();
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.hasReaders());
+    }
+
+    @Test
+    public void testReadHoldCountsIdentifyThreadsByIdentity() throws Exception {
+        // Threads which report the same id should not see each other's holds...
+        final ReentrantReadWriteUpdateLock.ReadLock readLock = reentrantReadWriteUpdateLock.readLock;
+        final long id = Thread.currentThread().getId();
+        readLock.lock();
+        final AtomicInteger holdCount = new AtomicInteger(-1);
+        Thread thread = new Thread() {
+            @Override
+            public long getId() {
+                return id;
+            }
+
+            @Override
+            public void run() {
+                holdCount.set(readLock.getHoldCount());
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(0, holdCount.get());
+        readLock.unlock();
+    }
+
+    @Test
+    public void testLockHandles() throws Exception {
+        LockHandle first;
+        try (LockHandle update = reentrantReadWriteUpdateLock.acquireUpdateLock()) {
+            assertTrue(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+            // Other threads should still be able to read...
+            assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+            assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+            try (LockHandle write = reentrantReadWriteUpdateLock.acquireWriteLock()) {
+                first = write;
+                assertFalse(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+            }
+            // Closing the write handle should downgrade to the update lock...
+            assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+            assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+            assertTrue(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+        }
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+
+        // Handles should be reused, rather than allocated per acquisition...
+        LockHandle write = reentrantReadWriteUpdateLock.acquireWriteLock();
+        assertSame(first, write);
+        write.close();
+        LockHandle read1 = reentrantReadWriteUpdateLock.acquireReadLock();
+        LockHandle read2 = reentrantReadWriteUpdateLock.acquireReadLock();
+        assertSame(read1, read2);
+        read2.close();
+        assertEquals(1, reentrantReadWriteUpdateLock.readLock.holdCount().value);
+        read1.close();
+        assertFalse(reentrantReadWriteUpdateLock.readLock.isHeldByCurrentThread());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testLockHandleClosedTwice() throws Exception {
+        LockHandle update = reentrantReadWriteUpdateLock.acquireUpdateLock();
+        update.close();
+        update.close();
+    }
+
+    @Test
+    public void testReadRunsOptimistically() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.read(new Supplier<String>() {
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                assertFalse(reentrantReadWriteUpdateLock.readLock.isHeldByCurrentThread());
+                return "foo";
+            }
+        });
+        assertEquals("foo", result);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testReadRetriesUnderReadLockAfterWrite() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.read("foo", new Function<String, String>() {
+            @Override
+            public String apply(String argument) {
+                if (calls.incrementAndGet() == 1) {
+                    // A write by thread 1 should invalidate the optimistic read...
+                    writeInThread1();
+                    throw new IllegalStateException("Read inconsistent values");
+                }
+                assertTrue(reentrantReadWriteUpdateLock.readLock.isHeldByCurrentThread());
+                return argument + "bar";
+            }
+        });
+        assertEquals("foobar", result);
+        assertEquals(2, calls.get());
+        assertFalse(reentrantReadWriteUpdateLock.readLock.isHeldByCurrentThread());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadRethrowsExceptionIfNoWrite() throws Exception {
+        reentrantReadWriteUpdateLock.read(new Supplier<String>() {
+            @Override
+            public String get() {
+                throw new IllegalStateException("Failed");
+            }
+        });
+    }
+
+    @Test
+    public void testUpdateWithoutUpgrade() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                calls.incrementAndGet();
+                assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+                return "foo";
+            }
+        });
+        assertEquals("foo", result);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testUpdateUpgradesToWriteLock() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.update("foo", new BiFunction<String, Upgrader, String>() {
+            @Override
+            public String apply(String argument, Upgrader upgrader) {
+                calls.incrementAndGet();
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    assertEquals(0L, reentrantReadWriteUpdateLock.tryOptimisticRead());
+                }
+                // Should hold the update lock until the function returns...
+                assertTrue(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+                assertTrue(reentrantReadWriteUpdateLock.tryOptimisticRead() != 0L);
+                return argument + "bar";
+            }
+        });
+        assertEquals("foobar", result);
+        assertEquals(1, calls.get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+    }
+
+    @Test
+    public void testUpdateRetriesUnderUpdateLockAfterWrite() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                if (calls.incrementAndGet() == 1) {
+                    // A write by thread 1 should cause the upgrade to abandon the optimistic attempt...
+                    writeInThread1();
+                }
+                else {
+                    assertTrue(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+                }
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    return "foo";
+                }
+            }
+        });
+        assertEquals("foo", result);
+        assertEquals(2, calls.get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+    }
+
+    @Test
+    public void testUpdateRetriesWhenFunctionCatchesValidationFailure() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        String result = reentrantReadWriteUpdateLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                if (calls.incrementAndGet() == 1) {
+                    writeInThread1();
+                }
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    return "written";
+                }
+                catch (RuntimeException e) {
+                    // A function which swallows the failure should not have its stale result returned...
+                    try (LockHandle write = upgrader.acquireWriteLock()) {
+                        fail("Upgrade should keep failing once validation failed");
+                    }
+                    catch (RuntimeException expected) {
+                        // Expected
+                    }
+                    return "stale";
+                }
+            }
+        });
+        assertEquals("written", result);
+        assertEquals(2, calls.get());
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+    }
+
+    @Test
+    public void testReadAndUpdateWhileHoldingUpdateLock() throws Exception {
+        reentrantReadWriteUpdateLock.updateLock().lock();
+        final AtomicInteger calls = new AtomicInteger();
+        reentrantReadWriteUpdateLock.read(new Supplier<String>() {
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                return "foo";
+            }
+        });
+        reentrantReadWriteUpdateLock.update(new Function<Upgrader, String>() {
+            @Override
+            public String apply(Upgrader upgrader) {
+                calls.incrementAndGet();
+                upgrader.acquireWriteLock().close();
+                return "foo";
+            }
+        });
+        assertEquals(2, calls.get());
+        assertTrue(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+        reentrantReadWriteUpdateLock.updateLock().unlock();
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        long stamp = reentrantReadWriteUpdateLock.tryOptimisticRead();
+        reentrantReadWriteUpdateLock.write(calls, new Consumer<AtomicInteger>() {
+            @Override
+            public void accept(AtomicInteger argument) {
+                argument.incrementAndGet();
+                assertEquals(0L, reentrantReadWriteUpdateLock.tryOptimisticRead());
+            }
+        });
+        assertEquals(1, calls.get());
+        assertFalse(reentrantReadWriteUpdateLock.validate(stamp));
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+    }
+
+    void writeInThread1() {
+        try {
+            assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+            assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testIntrospection() throws Exception {
+        ReentrantReadWriteUpdateLock lock = reentrantReadWriteUpdateLock;
+        assertEquals(0, lock.getReadLockCount());
+        assertFalse(lock.isUpdateLocked());
+        assertFalse(lock.isWriteLocked());
+        assertFalse(lock.hasQueuedThreads());
+        assertTrue(lock.toString().endsWith("[Read locks = 0, Update lock = unlocked, Write lock = unlocked, Queue length = 0]"));
+
+        // Acquire the read lock twice in this thread, and the update lock in thread 1...
+        lock.readLock().lock();
+        lock.readLock().lock();
+        assertEquals(1, lock.getReadLockCount());
+        assertEquals(2, lock.getReadHoldCount());
+        assertTrue(executor1.submit(new TryLockTask(lock.updateLock())).get());
+        assertTrue(lock.isUpdateLocked());
+        assertFalse(lock.isUpdateLockedByCurrentThread());
+        assertEquals(0, lock.getUpdateHoldCount());
+        assertNotNull(lock.getUpdateOwner());
+        assertNotSame(Thread.currentThread(), lock.getUpdateOwner());
+
+        // Thread 1 should wait to upgrade, and a reader and an updater should queue behind it...
+        ExecutorService executor3 = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> upgrade = executor1.submit(new LockUnlockTask(lock.writeLock()));
+            while (!lock.isUpgradePending()) {
+                Thread.sleep(1);
+            }
+            Future<Boolean> reader = executor2.submit(new LockUnlockTask(lock.readLock()));
+            Future<Boolean> updater = executor3.submit(new LockUnlockTask(lock.updateLock()));
+            while (lock.getQueuedReaderCount() != 1 || lock.getQueuedUpdaterCount() != 1) {
+                Thread.sleep(1);
+            }
+            assertEquals(3, lock.getQueueLength());
+            assertTrue(lock.hasQueuedThreads());
+            assertFalse(lock.hasQueuedThread(Thread.currentThread()));
+            assertTrue(lock.toString().contains("[Read locks = 1, Update lock = locked by thread "));
+            assertTrue(lock.toString().endsWith(", Write lock = unlocked, Queue length = 3]"));
+
+            // Releasing the read lock should let all of them proceed...
+            lock.readLock().unlock();
+            lock.readLock().unlock();
+            assertEquals(0, lock.getReadHoldCount());
+            assertTrue(upgrade.get());
+            assertTrue(reader.get());
+            assertTrue(executor1.submit(new UnlockTask(lock.updateLock())).get());
+            assertTrue(updater.get());
+        }
+        finally {
+            executor3.shutdown();
+        }
+        assertEquals(0, lock.getQueueLength());
+        assertFalse(lock.isUpdateLocked());
+        assertNull(lock.getUpdateOwner());
+
+        // Acquire the write lock twice in this thread...
+        lock.writeLock().lock();
+        lock.writeLock().lock();
+        assertTrue(lock.isWriteLocked());
+        assertTrue(lock.isWriteLockedByCurrentThread());
+        assertTrue(lock.isUpdateLockedByCurrentThread());
+        assertEquals(2, lock.getWriteHoldCount());
+        assertEquals(2, lock.getUpdateHoldCount());
+        assertSame(Thread.currentThread(), lock.getUpdateOwner());
+        lock.writeLock().unlock();
+        lock.writeLock().unlock();
+        assertFalse(lock.isWriteLocked());
+        assertEquals(0, lock.getWriteHoldCount());
+        assertEquals(0, lock.getUpdateHoldCount());
+    }
+
+    @Test
+    public void testOptimisticRead() throws Exception {
+        long stamp = reentrantReadWriteUpdateLock.tryOptimisticRead();
+        assertTrue(stamp != 0L);
+        assertTrue(reentrantReadWriteUpdateLock.validate(stamp));
+
+        // Acquiring the read and update locks in thread 1 should not invalidate the stamp...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+        assertTrue(executor2.submit(new TryLockTask(reentrantReadWriteUpdateLock.readLock())).get());
+        assertTrue(reentrantReadWriteUpdateLock.validate(stamp));
+        assertEquals(stamp, reentrantReadWriteUpdateLock.tryOptimisticRead());
+        assertTrue(executor2.submit(new UnlockTask(reentrantReadWriteUpdateLock.readLock())).get());
+
+        // Upgrading to the write lock in thread 1 should invalidate the stamp...
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertFalse(reentrantReadWriteUpdateLock.validate(stamp));
+        assertEquals(0L, reentrantReadWriteUpdateLock.tryOptimisticRead());
+
+        // Downgrading to the update lock in thread 1 should not make the stamp valid again...
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertFalse(reentrantReadWriteUpdateLock.validate(stamp));
+        long stamp2 = reentrantReadWriteUpdateLock.tryOptimisticRead();
+        assertTrue(stamp2 != 0L && stamp2 != stamp);
+        assertTrue(reentrantReadWriteUpdateLock.validate(stamp2));
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.updateLock())).get());
+
+        assertFalse(reentrantReadWriteUpdateLock.validate(0L));
+    }
+
+    @Test
+    public void testWriteLockTryLockAfterPriorWrite() throws Exception {
+        // The write version advanced by the first write must not prevent acquiring the free lock again...
+        for (int i = 0; i < 3; i++) {
+            assertTrue(reentrantReadWriteUpdateLock.writeLock().tryLock());
+            reentrantReadWriteUpdateLock.writeLock().unlock();
+        }
+        assertTrue(executor1.submit(new TryLockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+        assertTrue(executor1.submit(new UnlockTask(reentrantReadWriteUpdateLock.writeLock())).get());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testReadLockUnlockWithoutHolding() throws Exception {
+        reentrantReadWriteUpdateLock.readLock().unlock();
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testWriteLockUnlockWithoutHolding() throws Exception {
+        reentrantReadWriteUpdateLock.updateLock().lock();
+        try {
+            reentrantReadWriteUpdateLock.writeLock().unlock();
+        }
+        finally {
+            reentrantReadWriteUpdateLock.updateLock().unlock();
+        }
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testReadLockNewCondition() throws Exception {
         reentrantReadWriteUpdateLock.readLock().newCondition();
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testUpdateLockNewCondition() throws Exception {
-        reentrantReadWriteUpdateLock.updateLock().newCondition();
+    @Test
+    public void testWriteLockCondition() throws Exception {
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+        final Condition condition = writeLock.newCondition();
+        final CountDownLatch locked = new CountDownLatch(1);
+
+        // Acquire the update lock, and the write lock twice within it, in thread 1 and await the condition...
+        Future<String> await = executor1.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                updateLock.lock();
+                writeLock.lock();
+                writeLock.lock();
+                locked.countDown();
+                condition.await();
+                String holdCounts = reentrantReadWriteUpdateLock.sync.updateHolds.value + "," + reentrantReadWriteUpdateLock.sync.writeHolds.value;
+                writeLock.unlock();
+                writeLock.unlock();
+                updateLock.unlock();
+                return holdCounts;
+            }
+        });
+
+        // Acquire the write lock in foreground thread, should succeed once thread 1 is awaiting the condition...
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+        while (!writeLock.tryLock()) {
+            Thread.sleep(1);
+        }
+        condition.signal();
+        assertFalse(await.isDone());
+        writeLock.unlock();
+
+        // Thread 1 should return from await with its hold counts restored...
+        assertEquals("3,2", await.get(10, TimeUnit.SECONDS));
+        assertTrue(writeLock.tryLock());
+        writeLock.unlock();
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testWriteLockNewCondition() throws Exception {
-        reentrantReadWriteUpdateLock.writeLock().newCondition();
+    @Test
+    public void testUpdateLockCondition() throws Exception {
+        final Lock updateLock = reentrantReadWriteUpdateLock.updateLock(), writeLock = reentrantReadWriteUpdateLock.writeLock();
+        final Condition condition = updateLock.newCondition();
+        final CountDownLatch locked = new CountDownLatch(1);
+
+        // Acquire the update lock twice in thread 1 and await the condition...
+        Future<Boolean> await = executor1.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                updateLock.lock();
+                updateLock.lock();
+                locked.countDown();
+                boolean signalled = condition.await(10, TimeUnit.SECONDS);
+                // Thread 2 should not be able to acquire the update lock, as it has been restored...
+                signalled &= !executor2.submit(new TryLockTask(updateLock)).get();
+                updateLock.unlock();
+                signalled &= !executor2.submit(new TryLockTask(updateLock)).get();
+                updateLock.unlock();
+                return signalled;
+            }
+        });
+
+        // Acquire the write lock in foreground thread, should succeed once thread 1 is awaiting the condition...
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+        while (!writeLock.tryLock()) {
+            Thread.sleep(1);
+        }
+        // Holding the write lock also allows signalling conditions of the update lock...
+        condition.signalAll();
+        writeLock.unlock();
+        assertTrue(await.get(10, TimeUnit.SECONDS));
+        assertTrue(executor2.submit(new TryLockTask(updateLock)).get());
+        assertTrue(executor2.submit(new UnlockTask(updateLock)).get());
+    }
+
+    @Test
+    public void testConditionAwaitTimesOut() throws Exception {
+        Lock writeLock = reentrantReadWriteUpdateLock.writeLock();
+        writeLock.lock();
+        try {
+            assertFalse(writeLock.newCondition().await(1, TimeUnit.MILLISECONDS));
+            assertEquals(1, reentrantReadWriteUpdateLock.sync.writeHolds.value);
+        }
+        finally {
+            writeLock.unlock();
+        }
+        assertFalse(reentrantReadWriteUpdateLock.sync.isUpdateHeldByCurrentThread());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testWriteLockConditionRequiresWriteLock() throws Exception {
+        Condition condition = reentrantReadWriteUpdateLock.writeLock().newCondition();
+        reentrantReadWriteUpdateLock.updateLock().lock();
+        try {
+            condition.signal();
+        }
+        finally {
+            reentrantReadWriteUpdateLock.updateLock().unlock();
+        }
     }
 
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUpdateLockConditionRequiresUpdateLock() throws Exception {
+        reentrantReadWriteUpdateLock.updateLock().newCondition().await();
+    }
 
 
+
+    /**
+     * Returns a lock configured by the given builder, registering readers in the same way as the lock under test.
+     */
+    ReentrantReadWriteUpdateLock newLock(ReentrantReadWriteUpdateLock.Builder builder) {
+        return builder.scalableReads(reentrantReadWriteUpdateLock.sync.readerSlots != null).build();
+    }
+
     static class TryLockTask implements Callable<Boolean> {
         final Lock lock;
         public TryLockTask(Lock lock) {
@@ -382,6 +1396,19 @@ public class ReentrantReadWriteUpdateLockTest {
         }
     }
 
+    static class LockUnlockTask implements Callable<Boolean> {
+        final Lock lock;
+        public LockUnlockTask(Lock lock) {
+            this.lock = lock;
+        }
+        @Override
+        public Boolean call() throws Exception {
+            lock.lock();
+            lock.unlock();
+            return true;
+        }
+    }
+
     static class UnlockTask implements Callable<Boolean> {
         final Lock lock;
         public UnlockTask(Lock lock) {
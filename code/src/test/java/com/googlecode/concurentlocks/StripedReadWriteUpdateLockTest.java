@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLockTest.TryLockTask;
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLockTest.UnlockTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class StripedReadWriteUpdateLockTest {
+
+    ExecutorService executor1;
+
+    @Before
+    public void setUp() throws Exception {
+        executor1 = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor1.shutdown();
+    }
+
+    @Test
+    public void testSizeRoundedUpToPowerOfTwo() {
+        assertEquals(1, new StripedReadWriteUpdateLock(1).size());
+        assertEquals(2, new StripedReadWriteUpdateLock(2).size());
+        assertEquals(8, new StripedReadWriteUpdateLock(5).size());
+        assertEquals(64, new StripedReadWriteUpdateLock(64).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new StripedReadWriteUpdateLock(0);
+    }
+
+    @Test
+    public void testKeysMapToStripes() {
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(16);
+        Set<ReentrantReadWriteUpdateLock> distinct = Collections.newSetFromMap(new IdentityHashMap<ReentrantReadWriteUpdateLock, Boolean>());
+        for (int key = 0; key < 1000; key++) {
+            ReentrantReadWriteUpdateLock lock = striped.get(key);
+            assertSame(lock, striped.get(Integer.valueOf(key)));
+            assertSame(lock, striped.getAt(striped.indexFor(key)));
+            assertSame(lock.readLock(), striped.readLock(key));
+            assertSame(lock.updateLock(), striped.updateLock(key));
+            assertSame(lock.writeLock(), striped.writeLock(key));
+            distinct.add(lock);
+        }
+        // Sequential keys should be spread over all stripes...
+        assertEquals(16, distinct.size());
+        assertSame(striped.getAt(0), striped.get(null));
+    }
+
+    @Test
+    public void testStripesConfiguredByBuilder() {
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(4, ReentrantReadWriteUpdateLock.builder()
+                .readWritePolicy(ReentrantReadWriteUpdateLock.ReadWritePolicy.NON_FAIR)
+                .checked(false));
+        for (int i = 0; i < striped.size(); i++) {
+            assertFalse(striped.getAt(i).checked);
+            assertSame(ReentrantReadWriteUpdateLock.ReadWritePolicy.NON_FAIR, striped.getAt(i).sync.readWritePolicy);
+        }
+        assertNotSame(striped.getAt(0), striped.getAt(1));
+    }
+
+    @Test
+    public void testStripesPadSynchronizer() {
+        // The synchronizer holds the state written by every acquisition, so it is padded rather than the lock...
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(4);
+        for (int i = 0; i < striped.size(); i++) {
+            assertSame(ReentrantReadWriteUpdateLock.class, striped.getAt(i).getClass());
+            assertSame(ReentrantReadWriteUpdateLock.PaddedSync.class, striped.getAt(i).sync.getClass());
+        }
+        assertSame(ReentrantReadWriteUpdateLock.Sync.class, new ReentrantReadWriteUpdateLock().sync.getClass());
+    }
+
+    @Test
+    public void testUpdateLocksOfDifferentStripesAreIndependent() throws Exception {
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(16);
+        Object key1 = 1, key2 = keyInOtherStripe(striped, key1), key3 = keyInSameStripe(striped, key1);
+
+        assertTrue(executor1.submit(new TryLockTask(striped.updateLock(key1))).get());
+        assertTrue(striped.updateLock(key2).tryLock());
+        assertTrue(striped.writeLock(key2).tryLock());
+        assertFalse(striped.updateLock(key3).tryLock());
+        assertTrue(striped.readLock(key3).tryLock());
+        striped.readLock(key3).unlock();
+        striped.writeLock(key2).unlock();
+        striped.updateLock(key2).unlock();
+        assertTrue(executor1.submit(new UnlockTask(striped.updateLock(key1))).get());
+    }
+
+    @Test
+    public void testBulkGet() {
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(16);
+        Object key1 = 1, key2 = keyInOtherStripe(striped, key1), key3 = keyInSameStripe(striped, key1);
+
+        List<ReentrantReadWriteUpdateLock> locks = striped.bulkGet(Arrays.asList(key2, key1, key3, key2));
+        assertEquals(2, locks.size());
+        int index1 = striped.indexFor(key1), index2 = striped.indexFor(key2);
+        assertSame(striped.getAt(Math.min(index1, index2)), locks.get(0));
+        assertSame(striped.getAt(Math.max(index1, index2)), locks.get(1));
+        assertTrue(striped.bulkGet(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testBulkUpdateAndWriteLocks() throws Exception {
+        StripedReadWriteUpdateLock striped = new StripedReadWriteUpdateLock(16);
+        Object key1 = 1, key2 = keyInOtherStripe(striped, key1);
+        List<Object> keys = Arrays.asList(key1, key2);
+
+        Lock updateLocks = striped.bulkUpdateLock(keys), writeLocks = striped.bulkWriteLock(keys);
+        updateLocks.lock();
+        assertTrue(striped.get(key1).isUpdateLockedByCurrentThread());
+        assertTrue(striped.get(key2).isUpdateLockedByCurrentThread());
+        assertFalse(executor1.submit(new TryLockTask(striped.updateLock(key2))).get());
+        assertTrue(executor1.submit(new TryLockTask(striped.bulkReadLock(keys))).get());
+
+        // Upgrading should wait for the reader in thread 1, and roll back...
+        assertFalse(writeLocks.tryLock());
+        assertFalse(striped.get(key1).isWriteLockedByCurrentThread());
+        assertTrue(executor1.submit(new UnlockTask(striped.bulkReadLock(keys))).get());
+        assertTrue(writeLocks.tryLock());
+        assertTrue(striped.get(key1).isWriteLockedByCurrentThread());
+        assertTrue(striped.get(key2).isWriteLockedByCurrentThread());
+        writeLocks.unlock();
+        updateLocks.unlock();
+        assertFalse(striped.get(key1).isUpdateLocked());
+        assertFalse(striped.get(key2).isUpdateLocked());
+    }
+
+    static Object keyInOtherStripe(StripedReadWriteUpdateLock striped, Object key) {
+        for (int other = 0; ; other++) {
+            if (striped.indexFor(other) != striped.indexFor(key)) {
+                return other;
+            }
+        }
+    }
+
+    static Object keyInSameStripe(StripedReadWriteUpdateLock striped, Object key) {
+        for (int other = 0; ; other++) {
+            if (!key.equals(other) && striped.indexFor(other) == striped.indexFor(key)) {
+                return other;
+            }
+        }
+    }
+}
@@ -15,8 +15,12 @@
  */
 package com.googlecode.concurentlocks.examples;
 
+import com.googlecode.concurentlocks.LockHandle;
 import com.googlecode.concurentlocks.ReadWriteUpdateLock;
 import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+import com.googlecode.concurentlocks.Upgrader;
+
+import java.util.function.BiFunction;
 
 /**
  * Demonstrates usage of {@link com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock}.
@@ -53,6 +57,40 @@ public abstract class ExampleUsage {
         }
     }
 
+    public void updateDocumentIfNecessaryWithResources() {
+        // The same as updateDocumentIfNecessary(), but the handles release the locks when closed...
+        try (LockHandle update = readWriteUpdateLock.acquireUpdateLock()) {
+            Document currentDocument = readInDocument();
+            if (shouldUpdate(currentDocument)) {
+                Document newVersion = generateNewVersion(currentDocument);
+                try (LockHandle write = readWriteUpdateLock.acquireWriteLock()) {
+                    writeOutDocument(newVersion);
+                }
+            }
+        }
+    }
+
+    public Document updateDocumentIfNecessaryFunctionally() {
+        // The same as updateDocumentIfNecessary(), but runs optimistically until it needs to write...
+        return readWriteUpdateLock.update(this, UPDATE_DOCUMENT_IF_NECESSARY);
+    }
+
+    // A static function taking this object as its argument, so that no function object is allocated per call...
+    static final BiFunction<ExampleUsage, Upgrader, Document> UPDATE_DOCUMENT_IF_NECESSARY = new BiFunction<ExampleUsage, Upgrader, Document>() {
+        @Override
+        public Document apply(ExampleUsage example, Upgrader upgrader) {
+            Document currentDocument = example.readInDocument();
+            if (example.shouldUpdate(currentDocument)) {
+                Document newVersion = example.generateNewVersion(currentDocument);
+                try (LockHandle write = upgrader.acquireWriteLock()) {
+                    example.writeOutDocument(newVersion);
+                }
+                return newVersion;
+            }
+            return currentDocument;
+        }
+    };
+
     public Document readDocument() {
         readWriteUpdateLock.readLock().lock(); // blocks others from acquiring write lock
         try {
@@ -63,6 +101,16 @@ public abstract class ExampleUsage {
         }
     }
 
+    public Document readDocumentOptimistically() {
+        long stamp = readWriteUpdateLock.tryOptimisticRead(); // does not block others, or write to shared memory
+        Document document = readInDocument();
+        if (!readWriteUpdateLock.validate(stamp)) {
+            // The write lock was acquired while reading, fall back to reading with the read lock...
+            return readDocument();
+        }
+        return document;
+    }
+
     interface Document {}
     protected abstract Document readInDocument();
     protected abstract boolean shouldUpdate(Document document);
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2013 Niall Gallagher
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.concurentlocks.jfr;
+
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Niall Gallagher
+ */
+public class JfrLockMonitorTest {
+
+    static final String WAIT = "com.googlecode.concurentlocks.LockWait";
+    static final String UPGRADE = "com.googlecode.concurentlocks.LockUpgrade";
+    static final String HOLD = "com.googlecode.concurentlocks.LockHold";
+
+    final ReentrantReadWriteUpdateLock lock = ReentrantReadWriteUpdateLock.builder()
+            .monitor(new JfrLockMonitor(10, 50, TimeUnit.MILLISECONDS))
+            .build();
+
+    // Holder threads stay alive until the test finishes, as JFR cannot record terminated threads in events...
+    final CountDownLatch released = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+
+    Recording recording;
+
+    @Before
+    public void setUp() {
+        recording = new Recording();
+        recording.enable(LockWaitEvent.class).withoutStackTrace();
+        recording.enable(LockUpgradeEvent.class).withoutStackTrace();
+        recording.enable(LockHoldEvent.class).withoutStackTrace();
+        recording.start();
+    }
+
+    @After
+    public void tearDown() {
+        finished.countDown();
+        recording.close();
+    }
+
+    @Test
+    public void testFastAcquisitionsNotRecorded() throws Exception {
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        lock.updateLock().lock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        lock.updateLock().unlock();
+        assertTrue(stopAndRead().isEmpty());
+    }
+
+    @Test
+    public void testWaitAndHold() throws Exception {
+        Thread writer = holdInThread(lock.writeLock(), 100);
+        lock.readLock().lock();
+        lock.readLock().unlock();
+        released.await();
+
+        List<RecordedEvent> events = stopAndRead();
+        RecordedEvent wait = single(events, WAIT);
+        assertEquals("READ", wait.getString("mode"));
+        assertEquals(ReentrantReadWriteUpdateLock.class.getName(), wait.getClass("lockClass").getName());
+        assertEquals(System.identityHashCode(lock), wait.getInt("lockIdentity"));
+        assertTrue(wait.getDuration("waitDuration").toMillis() >= 10);
+        assertEquals(writer.getName(), wait.getThread("updateOwner").getJavaName());
+        assertFalse(wait.getBoolean("timedOut"));
+
+        // The writer's holds of the write lock and the update lock it includes...
+        List<String> holdModes = new ArrayList<String>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(HOLD)) {
+                assertTrue(event.getDuration("holdDuration").toMillis() >= 50);
+                assertEquals(writer.getName(), event.getThread().getJavaName());
+                holdModes.add(event.getString("mode"));
+            }
+        }
+        assertTrue(holdModes.contains("WRITE"));
+        assertTrue(holdModes.contains("UPDATE"));
+        assertEquals(2, holdModes.size());
+    }
+
+    @Test
+    public void testTimedOut() throws Exception {
+        Thread updater = holdInThread(lock.updateLock(), 200);
+        assertFalse(lock.updateLock().tryLock(20, TimeUnit.MILLISECONDS));
+        released.await();
+
+        RecordedEvent wait = single(stopAndRead(), WAIT);
+        assertEquals("UPDATE", wait.getString("mode"));
+        assertTrue(wait.getBoolean("timedOut"));
+        assertEquals(updater.getName(), wait.getThread("updateOwner").getJavaName());
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        Thread reader = holdInThread(lock.readLock(), 100);
+        lock.updateLock().lock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        lock.updateLock().unlock();
+        released.await();
+
+        RecordedEvent upgrade = single(stopAndRead(), UPGRADE);
+        assertTrue(upgrade.getDuration("waitDuration").toMillis() >= 10);
+        assertFalse(upgrade.getBoolean("timedOut"));
+        assertEquals(Thread.currentThread().getName(), upgrade.getThread().getJavaName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreshold() {
+        new JfrLockMonitor(-1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a thread which acquires the given lock, and returns when it has, leaving the thread to release it after
+     * the given number of milliseconds, count down {@link #released}, and wait until the test has finished.
+     */
+    Thread holdInThread(final Lock lock, final long millis) throws InterruptedException {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lock.lock();
+                try {
+                    acquired.countDown();
+                    Thread.sleep(millis);
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                finally {
+                    lock.unlock();
+                }
+                released.countDown();
+                try {
+                    finished.await();
+                }
+                catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, "JfrLockMonitorTest-holder");
+        thread.start();
+        acquired.await();
+        return thread;
+    }
+
+    List<RecordedEvent> stopAndRead() throws Exception {
+        recording.stop();
+        File file = File.createTempFile("JfrLockMonitorTest", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            return RecordingFile.readAllEvents(file.toPath());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    static RecordedEvent single(List<RecordedEvent> events, String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                assertNull("More than one " + name + " event: " + events, found);
+                found = event;
+            }
+        }
+        assertNotNull("No " + name + " event: " + events, found);
+        return found;
+    }
+}